@@ -5,19 +5,13 @@ import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
+import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
 import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import org.jetbrains.annotations.NotNull;
 
 public class AskChatGptAction extends AnAction {
 
@@ -36,54 +30,22 @@ public class AskChatGptAction extends AnAction {
         String prompt = Messages.showInputDialog(project, "Escreve o teu prompt:", "ChatGPT: Ask", Messages.getQuestionIcon());
         if (prompt == null || prompt.isBlank()) return;
 
-        // 3) Chamada síncrona simples (request curto). Se quiseres, migramos para background after.
-        try {
-            String responseText = callChatCompletions(apiKey, prompt);
-            notify(project, responseText, NotificationType.INFORMATION);
-        } catch (Exception ex) {
-            notify(project, "Erro na chamada à API: " + ex.getMessage(), NotificationType.ERROR);
-        }
-    }
-
-    private static String callChatCompletions(String apiKey, String prompt) throws Exception {
-        // Endpoint de Chat Completions (estável e simples)
-        URI uri = URI.create("https://api.openai.com/v1/chat/completions");
-
-        // Corpo JSON
-        JsonObject body = new JsonObject();
-        body.addProperty("model", "gpt-4o-mini");
-        JsonArray messages = new JsonArray();
-        JsonObject userMsg = new JsonObject();
-        userMsg.addProperty("role", "user");
-        userMsg.addProperty("content", prompt);
-        messages.add(userMsg);
-        body.add("messages", messages);
-        body.addProperty("temperature", 0.7);
-
-        HttpRequest request = HttpRequest.newBuilder(uri)
-                .timeout(Duration.ofSeconds(45))
-                .header("Authorization", "Bearer " + apiKey)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
-                .build();
-
-        HttpClient client = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(20))
-                .build();
-
-        HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
-            throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        }
-
-        // Extrair choices[0].message.content
-        JsonObject root = JsonParser.parseString(resp.body()).getAsJsonObject();
-        JsonArray choices = root.getAsJsonArray("choices");
-        if (choices == null || choices.size() == 0) return "(sem resposta)";
-        JsonObject first = choices.get(0).getAsJsonObject();
-        JsonObject msg = first.getAsJsonObject("message");
-        if (msg == null || msg.get("content") == null) return "(sem conteúdo)";
-        return msg.get("content").getAsString();
+        // 3) Pedido em background, na faixa interativa (passa à frente de trabalho bulk na fila)
+        new com.intellij.openapi.progress.Task.Backgroundable(project, "ChatGPT a responder…", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                try {
+                    String responseText = RequestScheduler.call(RequestScheduler.Lane.INTERACTIVE, indicator::isCanceled,
+                            () -> OpenAiHttp.chat(apiKey, "gpt-4o-mini", prompt, 0.7));
+                    notify(project, responseText.isEmpty() ? "(sem conteúdo)" : responseText, NotificationType.INFORMATION);
+                } catch (java.util.concurrent.CancellationException ignore) {
+                    // cancelado ainda na fila
+                } catch (Exception ex) {
+                    notify(project, "Erro na chamada à API: " + ex.getMessage(), NotificationType.ERROR);
+                }
+            }
+        }.queue();
     }
 
     private static void notify(Project project, String msg, NotificationType type) {
@@ -11,18 +11,28 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.RangeMarker;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.lang.Language;
 import com.intellij.openapi.fileTypes.PlainTextLanguage;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFile;
+import com.teuprojeto.chatgpt.core.MapReduce;
+import com.teuprojeto.chatgpt.core.ModelRouter;
 import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
 import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
 import org.jetbrains.annotations.NotNull;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Set;
 
 public class AskFromSelectionInsertAction extends AnAction {
@@ -31,11 +41,17 @@ public class AskFromSelectionInsertAction extends AnAction {
     private static final Set<String> SENSITIVE_EXTS  = Set.of("xml","yml","yaml","json","toml","properties");
     private static final Set<String> SAFE_EXTS       = Set.of("java","kt","kts","txt","md","markdown","groovy");
 
+    // Acima disto a seleção vai por map-reduce (partes em paralelo + reduce)
+    private static final int MAP_REDUCE_THRESHOLD_TOKENS = 12_000;
+    private static final int CHUNK_BUDGET_TOKENS = 6_000;
+    private static final int MAP_PARALLELISM = 4;
+
     @Override
     public void actionPerformed(@NotNull AnActionEvent e) {
         Project project = e.getProject();
         Editor editor = e.getData(CommonDataKeys.EDITOR);
         VirtualFile vf = e.getData(CommonDataKeys.VIRTUAL_FILE);
+        PsiFile psiFile = e.getData(CommonDataKeys.PSI_FILE);
 
         String apiKey = ChatGptSettingsState.getInstance().getApiKey();
         if (apiKey == null || apiKey.isBlank()) {
@@ -51,6 +67,8 @@ public class AskFromSelectionInsertAction extends AnAction {
                     return sel.hasSelection() ? sel.getSelectedText() : null;
                 }
         );
+        int selStart = selected != null ? editor.getSelectionModel().getSelectionStart() : -1;
+        int selEnd = selected != null ? editor.getSelectionModel().getSelectionEnd() : -1;
 
         String prompt = (selected != null && !selected.isBlank())
                 ? selected
@@ -60,12 +78,32 @@ public class AskFromSelectionInsertAction extends AnAction {
 
         boolean insertDirect = shouldInsertDirectly(vf);
 
+        if (selected != null && MapReduce.estimateTokens(selected) > MAP_REDUCE_THRESHOLD_TOKENS) {
+            // a seleção deste momento; o utilizador pode mexer no cursor enquanto o pedido corre
+            RangeMarker selection = editor.getDocument().createRangeMarker(selStart, selEnd);
+            runMapReduce(project, editor, selection, vf, psiFile, apiKey, insertDirect);
+            return;
+        }
+
         new com.intellij.openapi.progress.Task.Backgroundable(project, "ChatGPT a processar…", false) {
             @Override
             public void run(@NotNull com.intellij.openapi.progress.ProgressIndicator indicator) {
                 indicator.setIndeterminate(true);
                 try {
-                    String answer = OpenAiHttp.chat(apiKey, "gpt-4o-mini", prompt, 0.7);
+                    String request = prompt;
+                    if (selected != null && psiFile != null) {
+                        indicator.setText2("A resumir o ficheiro…");
+                        String skeleton = PsiSkeleton.build(project, psiFile, selStart, selEnd,
+                                ChatGptSettingsState.getInstance().getContextSkeletonTokens());
+                        if (skeleton != null) request = withFileContext(psiFile.getName(), skeleton, selected);
+                    }
+                    String req = request;
+                    // só o "auto" passa pelo router; o nível vem do texto do utilizador, não do
+                    // esqueleto que o plugin acrescenta (que traz sempre um bloco ```)
+                    String model = ModelRouter.resolve(ChatGptSettingsState.getInstance().getSelectionModel(),
+                            prompt, req.length() - prompt.length());
+                    String answer = RequestScheduler.call(RequestScheduler.Lane.EDITOR, indicator::isCanceled, () ->
+                            OpenAiHttp.chat(apiKey, model, req, 0.7));
 
                     if (insertDirect && editor != null) {
                         // inserir após a seleção (ou no cursor se não houver)
@@ -101,6 +139,8 @@ public class AskFromSelectionInsertAction extends AnAction {
                             }
                         });
                     }
+                } catch (ProcessCanceledException pce) {
+                    throw pce; // cancelamento da tarefa não é um erro para mostrar
                 } catch (Exception ex) {
                     showNotification(project, "Erro: " + ex.getMessage(), NotificationType.ERROR);
                 }
@@ -108,6 +148,130 @@ public class AskFromSelectionInsertAction extends AnAction {
         }.queue();
     }
 
+    /** Esqueleto do ficheiro como contexto; a seleção continua a ser o pedido. */
+    static String withFileContext(String fileName, String skeleton, String selection) {
+        return "Contexto: esqueleto de " + fileName + " (corpos não relacionados omitidos; a seleção está marcada "
+                + "com «seleção»). Usa-o só como referência.\n```\n" + skeleton + "\n```\n\n" + selection;
+    }
+
+    // =================== Map-reduce ===================
+
+    private void runMapReduce(Project project, Editor editor, RangeMarker selection, VirtualFile vf, PsiFile psiFile,
+                              String apiKey, boolean insertDirect) {
+        new com.intellij.openapi.progress.Task.Backgroundable(project, "ChatGPT a processar (por partes)…", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<String> chunks = ApplicationManager.getApplication().runReadAction(
+                        (com.intellij.openapi.util.Computable<List<String>>) () -> !selection.isValid() ? null
+                                : PsiChunker.split(psiFile, editor.getDocument().getImmutableCharSequence(),
+                                        selection.getStartOffset(), selection.getEndOffset(),
+                                        CHUNK_BUDGET_TOKENS * MapReduce.CHARS_PER_TOKEN)
+                );
+                if (chunks == null) return; // o texto selecionado foi apagado entretanto
+                String label = (vf != null) ? vf.getName() : "seleção";
+
+                // destino criado já, para as respostas parciais irem aparecendo
+                OutputSink[] sink = new OutputSink[1];
+                ApplicationManager.getApplication().invokeAndWait(() ->
+                        sink[0] = insertDirect ? OutputSink.afterSelection(project, editor, selection) : OutputSink.scratch(project, vf));
+                if (sink[0] == null) {
+                    showNotification(project, "Não foi possível criar Scratch file.", NotificationType.WARNING);
+                    return;
+                }
+
+                indicator.setIndeterminate(false);
+                try {
+                    // partes de tamanho limitado: chega o nível FAST, vai o que estiver mais rápido agora
+                    String selModel = ChatGptSettingsState.getInstance().getSelectionModel();
+                    String model = ModelRouter.AUTO.equals(selModel)
+                            ? ModelRouter.choose(ModelRouter.Tier.FAST, CHUNK_BUDGET_TOKENS)
+                            : selModel;
+                    String answer = MapReduce.run(apiKey, model, chunks, label,
+                            MAP_PARALLELISM, CHUNK_BUDGET_TOKENS,
+                            (idx, total, partial) -> {
+                                indicator.setFraction((double) (idx + 1) / (total + 1));
+                                indicator.setText2("Parte " + (idx + 1) + " de " + total);
+                                sink[0].append("/* Parte " + (idx + 1) + " de " + total + " */\n" + partial + "\n\n");
+                            },
+                            indicator::isCanceled);
+                    if (chunks.size() > 1) sink[0].append("/* Resposta combinada */\n" + answer + "\n");
+                    sink[0].then(() -> showNotification(project, "ChatGPT OK (" + chunks.size() + " partes)",
+                            NotificationType.INFORMATION));
+                } catch (java.util.concurrent.CancellationException ignore) {
+                    // cancelado pelo utilizador
+                } catch (Exception ex) {
+                    showNotification(project, "Erro: " + ex.getMessage(), NotificationType.ERROR);
+                }
+            }
+        }.queue();
+    }
+
+    /**
+     * Documento onde as partes vão sendo acrescentadas (sempre no fim da zona inserida).
+     * Todas as inserções partilham o mesmo grupo de comandos: um só Undo desfaz a resposta toda.
+     */
+    private static final class OutputSink {
+        private static final String COMMAND = "ChatGPT: Resposta por Partes";
+
+        private final Project project;
+        private final Document doc;
+        private final RangeMarker range;
+        private final String group;
+
+        private OutputSink(Project project, Document doc, RangeMarker range, String group) {
+            this.project = project;
+            this.doc = doc;
+            this.range = range;
+            this.group = group;
+            range.setGreedyToRight(true);
+        }
+
+        static OutputSink afterSelection(Project project, Editor editor, RangeMarker selection) {
+            Document doc = editor.getDocument();
+            int offset = selection.isValid() ? selection.getEndOffset() : editor.getCaretModel().getOffset();
+            String header = "\n/* ChatGPT */\n";
+            String group = newGroup();
+            write(project, group, () -> doc.insertString(offset, header));
+            return new OutputSink(project, doc, doc.createRangeMarker(offset, offset + header.length()), group);
+        }
+
+        static OutputSink scratch(Project project, VirtualFile vf) {
+            String base = (vf != null) ? vf.getName() : "untitled";
+            int dot = base.lastIndexOf('.');
+            if (dot > 0) base = base.substring(0, dot);
+            String name = "ChatGPT-" + base + "-" +
+                    LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".txt";
+            var scratch = ScratchRootType.getInstance().createScratchFile(
+                    project, name, PlainTextLanguage.INSTANCE, "/* Resposta por partes */\n");
+            if (scratch == null) return null;
+            FileEditorManager.getInstance(project).openFile(scratch, true);
+            Document doc = FileDocumentManager.getInstance().getDocument(scratch);
+            if (doc == null) return null;
+            return new OutputSink(project, doc, doc.createRangeMarker(TextRange.from(0, doc.getTextLength())), newGroup());
+        }
+
+        void append(String text) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (!range.isValid()) return;
+                write(project, group, () -> doc.insertString(range.getEndOffset(), text));
+            });
+        }
+
+        /** Corre no EDT depois das inserções já pedidas (o invokeLater é FIFO). */
+        void then(Runnable r) {
+            ApplicationManager.getApplication().invokeLater(r);
+        }
+
+        // comandos seguidos com o mesmo group id juntam-se num só passo de Undo
+        private static String newGroup() {
+            return "chatgpt.mapreduce." + System.nanoTime();
+        }
+
+        private static void write(Project project, String group, Runnable r) {
+            WriteCommandAction.writeCommandAction(project).withName(COMMAND).withGroupId(group).run(r::run);
+        }
+    }
+
     private static boolean shouldInsertDirectly(VirtualFile vf) {
         if (vf == null) return false;
         String name = vf.getName();
@@ -0,0 +1,204 @@
+package com.teuprojeto.chatgpt.actions;
+
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.RangeMarker;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.psi.PsiFile;
+import com.teuprojeto.chatgpt.core.MapReduce;
+import com.teuprojeto.chatgpt.core.Metrics;
+import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
+import com.teuprojeto.chatgpt.core.SearchReplaceParser;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Edita a seleção pedindo ao modelo só as alterações (blocos SEARCH/REPLACE) em vez
+ * do bloco inteiro reescrito. As edições são validadas à medida que chegam e
+ * aplicadas no fim como um único comando (um só Undo). Se algum bloco não casar,
+ * volta ao modo antigo: pede o bloco completo e insere-o após a seleção.
+ */
+public class EditSelectionAction extends AnAction {
+
+    private static final String MODEL = "gpt-4o-mini";
+    private static final String SYSTEM_PATCH =
+            "És um assistente de edição de código. Responde APENAS com blocos no formato:\n"
+                    + SearchReplaceParser.SEARCH + "\n<linhas exatas do original>\n"
+                    + SearchReplaceParser.DIVIDER + "\n<linhas novas>\n"
+                    + SearchReplaceParser.REPLACE + "\n"
+                    + "Copia as linhas SEARCH exatamente como estão (incluindo indentação), usa o mínimo de "
+                    + "linhas que as torne únicas e não reescrevas partes que não mudam.";
+    private static final String SYSTEM_FULL =
+            "És um assistente de edição de código. Responde só com o código completo já alterado, sem explicações.";
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT; // update() só lê a seleção do editor
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Editor editor = e.getData(CommonDataKeys.EDITOR);
+        e.getPresentation().setEnabled(editor != null && editor.getSelectionModel().hasSelection());
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        Editor editor = e.getData(CommonDataKeys.EDITOR);
+        if (project == null || editor == null) return;
+
+        String apiKey = ChatGptSettingsState.getInstance().getApiKey();
+        if (apiKey == null || apiKey.isBlank()) {
+            Messages.showWarningDialog(project, "Define a API key em Settings → Tools → ChatGPT.", "API key em falta");
+            return;
+        }
+
+        var sel = editor.getSelectionModel();
+        if (!sel.hasSelection()) return;
+        Document doc = editor.getDocument();
+        RangeMarker range = doc.createRangeMarker(sel.getSelectionStart(), sel.getSelectionEnd());
+        String original = sel.getSelectedText();
+        PsiFile psiFile = e.getData(CommonDataKeys.PSI_FILE);
+        int selStart = sel.getSelectionStart();
+        int selEnd = sel.getSelectionEnd();
+
+        String instruction = Messages.showInputDialog(project, "O que queres alterar na seleção?",
+                "ChatGPT: Editar Seleção", Messages.getQuestionIcon());
+        if (instruction == null || instruction.isBlank() || original == null) return;
+
+        new com.intellij.openapi.progress.Task.Backgroundable(project, "ChatGPT a editar…", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                String skeleton = psiFile == null ? null : PsiSkeleton.build(project, psiFile, selStart, selEnd,
+                        ChatGptSettingsState.getInstance().getContextSkeletonTokens());
+                String prompt = "Pedido: " + instruction + "\n\nCódigo:\n" + original;
+                if (skeleton != null) {
+                    prompt = AskFromSelectionInsertAction.withFileContext(psiFile.getName(), skeleton, prompt);
+                }
+                long t0 = System.nanoTime();
+                StringBuilder raw = new StringBuilder();
+                // cópia de trabalho: cada edição é aplicada (e validada) assim que chega
+                String[] working = {original};
+                boolean[] failed = {false};
+                int[] applied = {0};
+                List<SearchReplaceParser.Edit> edits = new ArrayList<>();
+                SearchReplaceParser parser = new SearchReplaceParser(edit -> {
+                    if (failed[0]) return;
+                    String next = SearchReplaceParser.apply(working[0], edit);
+                    if (next == null) {
+                        failed[0] = true;
+                        indicator.setText2("Edição " + (applied[0] + 1) + " não casa com a seleção");
+                    } else {
+                        working[0] = next;
+                        edits.add(edit);
+                        indicator.setText2("Edições validadas: " + ++applied[0]);
+                    }
+                });
+
+                try {
+                    String request = prompt;
+                    RequestScheduler.run(RequestScheduler.Lane.EDITOR, indicator::isCanceled, () ->
+                            OpenAiHttp.chatStreamWithHistory(apiKey, MODEL, Collections.emptyList(), request, 0.0,
+                                    delta -> {
+                                        raw.append(delta);
+                                        parser.feed(delta);
+                                    },
+                                    parser::finish,
+                                    SYSTEM_PATCH, ChatGptSettingsState.getInstance().getMaxContextChars()));
+                } catch (Exception ex) {
+                    showNotification(project, "Erro: " + ex.getMessage(), NotificationType.ERROR);
+                    return;
+                }
+
+                long patchMs = (System.nanoTime() - t0) / 1_000_000;
+                if (!failed[0] && parser.getEditCount() > 0 && !parser.isIncomplete()) {
+                    String patched = working[0];
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        if (!range.isValid()) return;
+                        // o utilizador pode ter mexido na seleção durante o pedido: nesse caso
+                        // as edições são reaplicadas ao texto atual, ou não se toca em nada
+                        String current = doc.getText(range.getTextRange());
+                        String result = current.equals(original) ? patched : applyAll(current, edits);
+                        if (result == null) {
+                            Metrics.inc("edit.stale");
+                            showNotification(project, "A seleção mudou durante o pedido e as edições já não casam; nada foi alterado.",
+                                    NotificationType.WARNING);
+                            return;
+                        }
+                        WriteCommandAction.runWriteCommandAction(project, "ChatGPT: Editar Seleção", null, () ->
+                                doc.replaceString(range.getStartOffset(), range.getEndOffset(), result));
+                        reportSavings(project, parser.getEditCount(), raw, result, patchMs);
+                    });
+                    return;
+                }
+
+                // fallback: bloco completo, inserido após a seleção como no "Ask from Selection"
+                Metrics.inc("edit.fallback");
+                indicator.setText2("Patch não aplicável; a pedir o bloco completo…");
+                try {
+                    String request = prompt;
+                    String full = RequestScheduler.call(RequestScheduler.Lane.EDITOR, indicator::isCanceled, () ->
+                            OpenAiHttp.chatWithHistory(apiKey, MODEL, Collections.emptyList(), request, 0.0,
+                                    SYSTEM_FULL, ChatGptSettingsState.getInstance().getMaxContextChars()));
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        if (!range.isValid()) return;
+                        WriteCommandAction.runWriteCommandAction(project, "ChatGPT: Editar Seleção", null, () ->
+                                doc.insertString(range.getEndOffset(), "\n/* ChatGPT */\n" + full + "\n"));
+                        showNotification(project, "Patch não aplicável; resposta completa inserida após a seleção.",
+                                NotificationType.WARNING);
+                    });
+                } catch (Exception ex) {
+                    showNotification(project, "Erro: " + ex.getMessage(), NotificationType.ERROR);
+                }
+            }
+        }.queue();
+    }
+
+    private static String applyAll(String text, List<SearchReplaceParser.Edit> edits) {
+        for (SearchReplaceParser.Edit edit : edits) {
+            text = SearchReplaceParser.apply(text, edit);
+            if (text == null) return null;
+        }
+        return text;
+    }
+
+    // Poupança estimada: tokens do patch vs. tokens que uma reescrita completa teria gerado.
+    private static void reportSavings(Project project, int edits, CharSequence patch, String full, long patchMs) {
+        int patchTokens = MapReduce.estimateTokens(patch);
+        int fullTokens = MapReduce.estimateTokens(full);
+        int savedPct = fullTokens == 0 ? 0 : (int) Math.round(100.0 * (fullTokens - patchTokens) / fullTokens);
+        // a latência de geração cresce ~linearmente com os tokens de saída
+        long fullMsEst = patchTokens == 0 ? patchMs : patchMs * fullTokens / patchTokens;
+
+        Metrics.inc("edit.patch");
+        Metrics.add("edit.tokens.patch", patchTokens);
+        Metrics.add("edit.tokens.full.est", fullTokens);
+        Metrics.record("edit.latency.patch", patchMs);
+
+        showNotification(project, String.format(
+                "Patch aplicado (%d edições): ~%d tokens de saída vs ~%d numa reescrita (%d%% menos); %d ms (~%d ms estimados sem patch).",
+                edits, patchTokens, fullTokens, savedPct, patchMs, fullMsEst), NotificationType.INFORMATION);
+    }
+
+    private static void showNotification(Project project, String msg, NotificationType type) {
+        Notifications.Bus.notify(new Notification("ChatGPT", "ChatGPT IntelliJ Helper", msg, type), project);
+    }
+}
@@ -0,0 +1,78 @@
+package com.teuprojeto.chatgpt.actions;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parte um intervalo de texto em blocos até {@code maxChars}, cortando nas
+ * fronteiras dos elementos PSI (classes, métodos, ...). Só desce na árvore quando
+ * um elemento não cabe; um elemento folha grande demais é cortado por linhas.
+ * Tem de correr dentro de uma read action.
+ */
+final class PsiChunker {
+
+    private PsiChunker() {}
+
+    static List<String> split(PsiFile file, CharSequence text, int start, int end, int maxChars) {
+        List<TextRange> units = new ArrayList<>();
+        TextRange sel = new TextRange(start, end);
+        if (file != null && file.getTextLength() == text.length()) {
+            for (PsiElement child = file.getFirstChild(); child != null; child = child.getNextSibling()) {
+                collectUnits(child, sel, maxChars, units);
+            }
+        }
+        if (units.isEmpty()) units.add(sel);
+        return pack(text, units, maxChars);
+    }
+
+    private static void collectUnits(PsiElement e, TextRange sel, int maxChars, List<TextRange> out) {
+        TextRange r = e.getTextRange().intersection(sel);
+        if (r == null || r.isEmpty()) return;
+        if (r.getLength() <= maxChars || e.getFirstChild() == null) {
+            out.add(r);
+            return;
+        }
+        for (PsiElement child = e.getFirstChild(); child != null; child = child.getNextSibling()) {
+            collectUnits(child, sel, maxChars, out);
+        }
+    }
+
+    // junta unidades consecutivas enquanto couberem no orçamento
+    private static List<String> pack(CharSequence text, List<TextRange> units, int maxChars) {
+        List<String> chunks = new ArrayList<>();
+        int chunkStart = units.get(0).getStartOffset();
+        int chunkEnd = chunkStart;
+        for (TextRange u : units) {
+            if (u.getEndOffset() - chunkStart > maxChars && chunkEnd > chunkStart) {
+                chunks.add(text.subSequence(chunkStart, chunkEnd).toString());
+                chunkStart = chunkEnd;
+            }
+            if (u.getEndOffset() - chunkStart > maxChars) {
+                chunkStart = splitByLines(text, chunkStart, u.getEndOffset(), maxChars, chunks);
+            }
+            chunkEnd = u.getEndOffset();
+        }
+        if (chunkEnd > chunkStart) chunks.add(text.subSequence(chunkStart, chunkEnd).toString());
+        return chunks;
+    }
+
+    // corta [from, to) por linhas; devolve o início do resto que ainda cabe num bloco
+    private static int splitByLines(CharSequence text, int from, int to, int maxChars, List<String> chunks) {
+        while (to - from > maxChars) {
+            int cut = from + maxChars;
+            for (int i = cut - 1; i > from; i--) {
+                if (text.charAt(i) == '\n') {
+                    cut = i + 1;
+                    break;
+                }
+            }
+            chunks.add(text.subSequence(from, cut).toString());
+            from = cut;
+        }
+        return from;
+    }
+}
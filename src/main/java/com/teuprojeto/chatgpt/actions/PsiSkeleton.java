@@ -0,0 +1,249 @@
+package com.teuprojeto.chatgpt.actions;
+
+import com.intellij.lang.folding.FoldingBuilder;
+import com.intellij.lang.folding.FoldingDescriptor;
+import com.intellij.lang.folding.LanguageFolding;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.teuprojeto.chatgpt.core.MapReduce;
+import com.teuprojeto.chatgpt.core.Metrics;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Esqueleto do ficheiro à volta de uma seleção, para dar contexto ao modelo sem
+ * mandar o ficheiro inteiro. Mantém imports, assinaturas e campos; os corpos de
+ * blocos (regiões de folding que começam por '{') e os comentários de bloco que
+ * não tocam na seleção passam a "{ … }". Os corpos das declarações referidas na
+ * seleção só são cortados se o orçamento não chegar; as declaradas noutros
+ * ficheiros do projeto entram como uma linha de assinatura.
+ * <p>
+ * As regiões do ficheiro ficam em cache até o PSI mudar (modification stamp) e
+ * os esqueletos já calculados ficam presos a essa cache.
+ */
+final class PsiSkeleton {
+
+    private static final Key<CachedValue<Outline>> OUTLINE = Key.create("chatgpt.skeleton.outline");
+
+    private static final int MIN_BODY_CHARS = 40;   // blocos pequenos não valem o "{ … }"
+    private static final int MAX_REFS = 300;
+    private static final int MAX_EXTERNAL = 20;
+    private static final int MAX_SIGNATURE_CHARS = 200;
+    private static final String SELECTION_MARK = "/* «seleção» */";
+
+    private PsiSkeleton() {}
+
+    /**
+     * Calcula (ou tira da cache) o esqueleto. Tem de correr fora do EDT: usa uma
+     * read action não bloqueante e espera pelo fim da indexação para resolver referências.
+     * {@code null} se o ficheiro deixou de ser válido ou a read action foi cancelada: o
+     * pedido segue sem esqueleto. Só o cancelamento do próprio pedido é propagado.
+     */
+    static @Nullable String build(Project project, PsiFile file, int selStart, int selEnd, int budgetTokens) {
+        if (file == null || budgetTokens <= 0) return null;
+        try {
+            return ReadAction.nonBlocking(() -> compute(project, file, selStart, selEnd, budgetTokens))
+                    .inSmartMode(project)
+                    .expireWhen(() -> !file.isValid())
+                    .executeSynchronously();
+        } catch (ProcessCanceledException e) {
+            ProgressManager.checkCanceled(); // o utilizador cancelou a tarefa: propaga
+            Metrics.inc("skeleton.cancelled");
+            return null;
+        }
+    }
+
+    // =================== Cálculo ===================
+
+    private static final class Outline {
+        final List<Block> blocks;
+        final Map<String, String> skeletons = new ConcurrentHashMap<>();
+
+        Outline(List<Block> blocks) {
+            this.blocks = blocks;
+        }
+    }
+
+    private record Block(TextRange range, boolean comment, boolean container) {}
+
+    private static @Nullable String compute(Project project, PsiFile file, int selStart, int selEnd, int budgetTokens) {
+        Document doc = PsiDocumentManager.getInstance(project).getDocument(file);
+        if (doc == null || !PsiDocumentManager.getInstance(project).isCommitted(doc)) return null;
+        CharSequence text = file.getViewProvider().getContents();
+        if (selStart < 0 || selEnd > text.length() || selStart > selEnd) return null;
+
+        Outline outline = CachedValuesManager.getManager(project).getCachedValue(file, OUTLINE,
+                () -> CachedValueProvider.Result.create(outline(file, doc, text), file), false);
+        String key = selStart + ":" + selEnd + ":" + budgetTokens;
+        String cached = outline.skeletons.get(key);
+        if (cached != null) {
+            Metrics.inc("skeleton.cache.hit");
+            return cached;
+        }
+
+        long t0 = System.nanoTime();
+        String skeleton = skeleton(project, file, text, outline.blocks, new TextRange(selStart, selEnd),
+                budgetTokens * MapReduce.CHARS_PER_TOKEN);
+        if (outline.skeletons.size() > 32) outline.skeletons.clear();
+        outline.skeletons.put(key, skeleton);
+
+        Metrics.record("skeleton.ms", (System.nanoTime() - t0) / 1_000_000);
+        Metrics.add("skeleton.chars.file", text.length());
+        Metrics.add("skeleton.chars.sent", skeleton.length());
+        return skeleton;
+    }
+
+    private static Outline outline(PsiFile file, Document doc, CharSequence text) {
+        FoldingBuilder fb = LanguageFolding.INSTANCE.forLanguage(file.getLanguage());
+        FoldingDescriptor[] descriptors = fb == null
+                ? FoldingDescriptor.EMPTY_ARRAY
+                : LanguageFolding.buildFoldingDescriptors(fb, file, doc, true);
+
+        List<TextRange> ranges = new ArrayList<>();
+        for (FoldingDescriptor d : descriptors) {
+            TextRange r = d.getRange();
+            if (r.getLength() < MIN_BODY_CHARS || r.getEndOffset() > text.length()) continue;
+            char c = text.charAt(r.getStartOffset());
+            boolean comment = c == '/' && r.getStartOffset() + 1 < text.length() && text.charAt(r.getStartOffset() + 1) == '*';
+            if (c == '{' || comment) ranges.add(r);
+        }
+        ranges.sort(Comparator.comparingInt(TextRange::getStartOffset).thenComparing(r -> -r.getLength()));
+
+        List<Block> blocks = new ArrayList<>(ranges.size());
+        for (TextRange r : ranges) {
+            boolean comment = text.charAt(r.getStartOffset()) == '/';
+            blocks.add(new Block(r, comment, !comment && isContainer(file, r)));
+        }
+        return new Outline(blocks);
+    }
+
+    // Corpo de classe (tem declarações com nome como filhos diretos) vs corpo de método.
+    private static boolean isContainer(PsiFile file, TextRange r) {
+        PsiElement brace = file.findElementAt(r.getStartOffset());
+        PsiElement owner = brace != null ? brace.getParent() : null;
+        if (owner == null) return false;
+        for (PsiElement child = owner.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof PsiNameIdentifierOwner && child.getTextRange().getStartOffset() > r.getStartOffset()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String skeleton(Project project, PsiFile file, CharSequence text, List<Block> blocks,
+                                   TextRange sel, int budgetChars) {
+        List<TextRange> referenced = new ArrayList<>();
+        Set<String> external = new LinkedHashSet<>();
+        collectReferences(project, file, sel, referenced, external);
+
+        // 1.º corpos não relacionados; 2.º (se preciso) os das declarações referidas e os das classes
+        List<TextRange> elided = new ArrayList<>();
+        List<TextRange> optional = new ArrayList<>();
+        for (Block b : blocks) {
+            TextRange r = b.range();
+            if (r.intersects(sel) || sel.contains(r)) continue;
+            boolean isReferenced = referenced.stream().anyMatch(d -> d.contains(r));
+            if (b.container() || isReferenced) optional.add(r);
+            else if (!coveredBy(elided, r)) elided.add(r);
+        }
+
+        String out = render(text, elided, sel, external);
+        optional.sort(Comparator.comparingInt(r -> -r.getLength()));
+        for (TextRange r : optional) {
+            if (out.length() <= budgetChars) break;
+            if (coveredBy(elided, r)) continue;
+            elided.removeIf(r::contains);
+            elided.add(r);
+            out = render(text, elided, sel, external);
+        }
+        return out.length() <= budgetChars ? out : window(out, budgetChars);
+    }
+
+    private static boolean coveredBy(List<TextRange> ranges, TextRange r) {
+        for (TextRange e : ranges) if (e.contains(r)) return true;
+        return false;
+    }
+
+    private static void collectReferences(Project project, PsiFile file, TextRange sel,
+                                          List<TextRange> sameFile, Set<String> external) {
+        ProjectFileIndex index = ProjectFileIndex.getInstance(project);
+        int[] budget = {MAX_REFS};
+        Deque<PsiElement> stack = new ArrayDeque<>();
+        stack.push(file);
+        while (!stack.isEmpty() && budget[0] > 0) {
+            PsiElement e = stack.pop();
+            if (!e.getTextRange().intersects(sel)) continue;
+            for (PsiReference ref : e.getReferences()) {
+                if (--budget[0] < 0) break;
+                PsiElement target = ref.resolve();
+                if (target == null || target.getTextRange() == null) continue;
+                PsiFile tf = target.getContainingFile();
+                if (tf == null) continue;
+                if (tf.getOriginalFile().equals(file.getOriginalFile())) {
+                    if (!target.getTextRange().intersects(sel)) sameFile.add(target.getTextRange());
+                } else if (external.size() < MAX_EXTERNAL) {
+                    VirtualFile vf = tf.getVirtualFile();
+                    if (vf != null && index.isInContent(vf)) external.add("// " + vf.getName() + ": " + signature(target));
+                }
+            }
+            for (PsiElement c = e.getLastChild(); c != null; c = c.getPrevSibling()) stack.push(c);
+        }
+    }
+
+    // texto da declaração até ao corpo, numa linha
+    private static String signature(PsiElement target) {
+        String t = target.getText();
+        int cut = t.length();
+        for (char stop : new char[]{'{', '='}) {
+            int i = t.indexOf(stop);
+            if (i >= 0) cut = Math.min(cut, i);
+        }
+        String s = t.substring(0, cut).replaceAll("\\s+", " ").trim();
+        return s.length() > MAX_SIGNATURE_CHARS ? s.substring(0, MAX_SIGNATURE_CHARS) + "…" : s;
+    }
+
+    private static String render(CharSequence text, List<TextRange> elided, TextRange sel, Set<String> external) {
+        List<TextRange> cuts = new ArrayList<>(elided);
+        cuts.add(sel);
+        cuts.sort(Comparator.comparingInt(TextRange::getStartOffset));
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : external) sb.append(line).append('\n');
+        if (!external.isEmpty()) sb.append('\n');
+        int pos = 0;
+        for (TextRange c : cuts) {
+            sb.append(text, pos, c.getStartOffset());
+            if (c == sel) sb.append(SELECTION_MARK);
+            else sb.append(text.charAt(c.getStartOffset()) == '{' ? "{ … }" : "/* … */");
+            pos = c.getEndOffset();
+        }
+        sb.append(text, pos, text.length());
+        return sb.toString();
+    }
+
+    // último recurso: as linhas mais próximas da seleção
+    private static String window(String out, int budgetChars) {
+        int mark = Math.max(0, out.indexOf(SELECTION_MARK));
+        int start = Math.max(0, mark - budgetChars / 2);
+        int end = Math.min(out.length(), start + budgetChars);
+        start = Math.max(0, end - budgetChars);
+        int nl = out.indexOf('\n', start);
+        if (start > 0 && nl >= 0 && nl < mark) start = nl + 1;
+        int lastNl = out.lastIndexOf('\n', end);
+        if (end < out.length() && lastNl > mark) end = lastNl;
+        return (start > 0 ? "…\n" : "") + out.substring(start, end) + (end < out.length() ? "\n…" : "");
+    }
+}
@@ -0,0 +1,56 @@
+package com.teuprojeto.chatgpt.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.ui.DialogBuilder;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.util.ui.JBUI;
+import com.teuprojeto.chatgpt.core.ConversationTree;
+import com.teuprojeto.chatgpt.core.Metrics;
+import com.teuprojeto.chatgpt.core.ModelRouter;
+import com.teuprojeto.chatgpt.core.PrefixCache;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
+import com.teuprojeto.chatgpt.core.SharedCoordinator;
+import com.teuprojeto.chatgpt.core.SimilarityCache;
+import com.teuprojeto.chatgpt.core.StartupBudget;
+import com.teuprojeto.chatgpt.core.WireStats;
+import com.teuprojeto.chatgpt.local.LocalIntentRouter;
+import com.teuprojeto.chatgpt.settings.ChatHistoryStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+public class ShowStatsAction extends AnAction {
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        SimilarityCache sc = SimilarityCache.getInstance();
+        ConversationTree.Shape tree = ChatHistoryStore.getInstance().tree();
+        String text = Metrics.report()
+                + "\nCache por semelhança: " + sc.getHits() + " hits / " + sc.getMisses() + " misses\n"
+                + LocalIntentRouter.report() + "\n"
+                + WireStats.report() + "\n"
+                + PrefixCache.report() + "\n"
+                + RequestScheduler.report() + "\n"
+                + ModelRouter.report() + "\n"
+                + SharedCoordinator.report() + "\n"
+                + "\nHistórico em memória: ~" + ChatHistoryStore.getInstance().estimatedBytes() / 1024 + " KB ("
+                + tree.size() + " mensagens em " + tree.leaves().size() + " ramos)\n"
+                + "\n" + StartupBudget.report();
+
+        JBTextArea area = new JBTextArea(text);
+        area.setEditable(false);
+        area.setFont(new Font(EditorColorsManager.getInstance().getGlobalScheme().getEditorFontName(), Font.PLAIN,
+                area.getFont().getSize()));
+        JBScrollPane scroll = new JBScrollPane(area);
+        scroll.setPreferredSize(new Dimension(JBUI.scale(640), JBUI.scale(420)));
+
+        DialogBuilder db = new DialogBuilder(e.getProject());
+        db.setTitle("ChatGPT: Estatísticas");
+        db.setCenterPanel(scroll);
+        db.addOkAction();
+        db.show();
+    }
+}
@@ -0,0 +1,209 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Histórico em memória em forma compacta e segura entre threads. Cada mensagem
+ * guarda o texto em UTF-8 e, quando sai da janela "quente" (entre as últimas
+ * {@link #HOT} e 2×{@link #HOT} mensagens), é comprimida com Deflate se isso
+ * poupar espaço.
+ * <p>
+ * O estado é imutável: segmentos cheios de {@link #SEGMENT} entradas, partilhados
+ * entre versões, mais uma cauda copiada a cada append (no máximo {@link #SEGMENT}
+ * referências). As mutações trocam o estado com CAS; {@link #snapshot()} devolve o
+ * estado atual tal como está — O(1), sem locks nem cópias — e continua válido
+ * depois de mutações seguintes. A compressão é feita antes do CAS: se a troca
+ * falhar, só se volta a comprimir se o segmento a arrefecer for outro.
+ */
+public final class CompactMessageStore {
+
+    static final int SEGMENT = 32;
+    static final int HOT = SEGMENT;
+    private static final int COMPRESS_MIN_BYTES = 256;
+
+    private static final byte USER = 0;
+    private static final byte ASSISTANT = 1;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+
+    // =================== Escrita ===================
+
+    public void add(String role, String text, long timestamp) {
+        add(role, text, timestamp, Integer.MAX_VALUE);
+    }
+
+    /** Acrescenta e corta as mais antigas acima de {@code cap}, numa só troca de estado. */
+    public void add(String role, String text, long timestamp, int cap) {
+        Entry e = Entry.of(role, text != null ? text : "", timestamp);
+        Entry[] cooled = null;  // último segmento comprimido e o original de onde veio
+        Entry[] packed = null;
+        while (true) {
+            State s = state.get();
+            Entry[] cooling = s.coolingOnAppend();
+            if (cooling != null && cooling != cooled) {
+                packed = compressed(cooling);
+                cooled = cooling;
+            }
+            State next = s.append(e, packed);
+            if (next.size() > cap) next = next.dropFirst(next.size() - cap);
+            if (state.compareAndSet(s, next)) return;
+        }
+    }
+
+    public void removeFirst(int n) {
+        if (n > 0) state.updateAndGet(s -> s.dropFirst(n));
+    }
+
+    public void clear() {
+        state.set(State.EMPTY);
+    }
+
+    public int size() {
+        return state.get().size();
+    }
+
+    /** Vista imutável e consistente, para quem constrói pedidos ou grava em disco. */
+    public OpenAiHttp.HistoryView snapshot() {
+        return state.get();
+    }
+
+    /** Bytes aproximados ocupados pelas entradas (cabeçalhos de objetos incluídos). */
+    public long estimatedBytes() {
+        State s = state.get();
+        long total = 0;
+        for (int i = 0; i < s.size(); i++) total += s.entry(i).footprint();
+        return total;
+    }
+
+    // =================== Estado ===================
+
+    private static final class State implements OpenAiHttp.HistoryView {
+        static final State EMPTY = new State(new Entry[0][], new Entry[0], 0);
+
+        final Entry[][] segments; // cada um com SEGMENT entradas; nunca alterados
+        final Entry[] tail;       // 1..SEGMENT entradas (0 só no estado vazio)
+        final int offset;         // entradas já removidas do início
+
+        State(Entry[][] segments, Entry[] tail, int offset) {
+            this.segments = segments;
+            this.tail = tail;
+            this.offset = offset;
+        }
+
+        /** Segmento que sai da janela quente no próximo append, ou null se nenhum sai. */
+        Entry[] coolingOnAppend() {
+            return tail.length == SEGMENT && segments.length > 0 ? segments[segments.length - 1] : null;
+        }
+
+        /** {@code packed} = {@link #coolingOnAppend()} já comprimido (feito fora do CAS). */
+        State append(Entry e, Entry[] packed) {
+            if (tail.length < SEGMENT) {
+                Entry[] t = Arrays.copyOf(tail, tail.length + 1);
+                t[tail.length] = e;
+                return new State(segments, t, offset);
+            }
+            // cauda cheia: passa a segmento; o segmento anterior sai da janela quente
+            Entry[][] segs = Arrays.copyOf(segments, segments.length + 1);
+            if (segments.length > 0) segs[segments.length - 1] = packed;
+            segs[segments.length] = tail;
+            return new State(segs, new Entry[]{e}, offset);
+        }
+
+        State dropFirst(int n) {
+            int drop = Math.min(n, size());
+            if (drop == size()) return EMPTY;
+            int start = offset + drop;
+            int whole = Math.min(start / SEGMENT, segments.length);
+            Entry[][] segs = Arrays.copyOfRange(segments, whole, segments.length);
+            int off = start - whole * SEGMENT;
+            if (segs.length == 0) return new State(segs, Arrays.copyOfRange(tail, off, tail.length), 0);
+            return new State(segs, tail, off);
+        }
+
+        Entry entry(int i) {
+            int j = i + offset;
+            int seg = j / SEGMENT;
+            return seg < segments.length ? segments[seg][j % SEGMENT] : tail[j - segments.length * SEGMENT];
+        }
+
+        @Override public int size() { return segments.length * SEGMENT + tail.length - offset; }
+        @Override public String role(int i) { return entry(i).role == ASSISTANT ? "assistant" : "user"; }
+        @Override public int length(int i) { return entry(i).chars; }
+        @Override public String text(int i) { return entry(i).text(); }
+        @Override public long timestamp(int i) { return entry(i).timestamp; }
+    }
+
+    private static Entry[] compressed(Entry[] segment) {
+        Entry[] out = new Entry[segment.length];
+        for (int i = 0; i < segment.length; i++) out[i] = segment[i].compressed();
+        return out;
+    }
+
+    // =================== Entradas ===================
+
+    private static final class Entry {
+        final byte role;
+        final long timestamp;
+        final int chars;       // comprimento em chars do texto original
+        final int rawBytes;    // tamanho UTF-8 antes de comprimir
+        final byte[] data;     // UTF-8, ou Deflate se compressed
+        final boolean compressed;
+
+        private Entry(byte role, long timestamp, int chars, int rawBytes, byte[] data, boolean compressed) {
+            this.role = role;
+            this.timestamp = timestamp;
+            this.chars = chars;
+            this.rawBytes = rawBytes;
+            this.data = data;
+            this.compressed = compressed;
+        }
+
+        static Entry of(String role, String text, long timestamp) {
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            byte r = "assistant".equalsIgnoreCase(role) ? ASSISTANT : USER;
+            return new Entry(r, timestamp, text.length(), utf8.length, utf8, false);
+        }
+
+        Entry compressed() {
+            if (compressed || data.length < COMPRESS_MIN_BYTES) return this;
+            Deflater d = new Deflater(Deflater.BEST_SPEED);
+            try {
+                d.setInput(data);
+                d.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+                byte[] buf = new byte[1024];
+                while (!d.finished()) out.write(buf, 0, d.deflate(buf));
+                byte[] z = out.toByteArray();
+                return z.length < data.length ? new Entry(role, timestamp, chars, rawBytes, z, true) : this;
+            } finally {
+                d.end();
+            }
+        }
+
+        String text() {
+            if (!compressed) return new String(data, StandardCharsets.UTF_8);
+            Inflater inf = new Inflater();
+            try {
+                inf.setInput(data);
+                byte[] out = new byte[rawBytes];
+                int n = 0;
+                while (n < rawBytes && !inf.finished()) n += inf.inflate(out, n, rawBytes - n);
+                return new String(out, 0, n, StandardCharsets.UTF_8);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Mensagem comprimida corrompida", e);
+            } finally {
+                inf.end();
+            }
+        }
+
+        long footprint() {
+            return 40 + 16 + data.length; // objeto Entry + array
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Conversa em árvore. Cada mensagem é um nó com pai; editar uma pergunta antiga (ou
+ * pedir outra resposta) acrescenta um irmão debaixo do mesmo pai, por isso os ramos
+ * partilham o prefixo comum em vez de o copiar. A conversa "atual" é o caminho da
+ * raiz até ao nó {@code head}.
+ * <p>
+ * Os nós vivem num {@link CompactMessageStore} por ordem de id (id = {@code firstId} +
+ * posição); ao lado fica só o id do pai de cada um. Como lá, o estado ({@link Shape})
+ * é imutável e publicado de uma vez: os leitores não usam locks e as mutações são
+ * serializadas pelo próprio objeto. Os ids nunca se repetem, nem depois de limpar.
+ * Acima de {@code cap} nós caem os mais antigos, de todos os ramos; um nó cujo pai já
+ * caiu passa a raiz.
+ */
+public final class ConversationTree {
+
+    public static final long NONE = -1;
+
+    private final CompactMessageStore nodes = new CompactMessageStore();
+    private volatile Shape shape;
+
+    public ConversationTree() {
+        this(0);
+    }
+
+    /** Árvore vazia cujo primeiro nó terá o id {@code firstId} (ao restaurar do disco). */
+    public ConversationTree(long firstId) {
+        shape = new Shape(OpenAiHttp.HistoryView.EMPTY, firstId, new long[0], NONE);
+    }
+
+    // =================== Escrita ===================
+
+    /**
+     * Acrescenta um nó debaixo de {@code parent} ({@link #NONE} = raiz) e devolve o id.
+     * O head passa para o novo nó se estava no pai, ou seja, se o nó continua o ramo
+     * que está à vista; uma resposta que chega depois de se mudar de ramo fica no ramo
+     * dela sem trocar o que o utilizador está a ver.
+     */
+    public synchronized long add(long parent, String role, String text, long timestamp, int cap) {
+        Shape s = shape;
+        long p = s.contains(parent) ? parent : NONE;
+        long id = s.nextId();
+        nodes.add(role, text, timestamp);
+        long[] parents = Arrays.copyOf(s.parents, s.parents.length + 1);
+        parents[s.parents.length] = p;
+        long head = s.head == p ? id : s.head;
+        long firstId = s.firstId;
+        int drop = parents.length - cap;
+        if (drop > 0) {
+            nodes.removeFirst(drop);
+            parents = Arrays.copyOfRange(parents, drop, parents.length);
+            firstId += drop;
+            if (head < firstId) head = NONE;
+        }
+        shape = new Shape(nodes.snapshot(), firstId, parents, head);
+        return id;
+    }
+
+    /** Muda o ramo à vista; {@code id} fica como último nó da conversa atual. */
+    public synchronized void setHead(long id) {
+        Shape s = shape;
+        long head = s.contains(id) ? id : NONE;
+        if (head != s.head) shape = new Shape(s.nodes, s.firstId, s.parents, head);
+    }
+
+    /** Apaga todos os ramos; os ids continuam a contar de onde estavam. */
+    public synchronized void clear() {
+        nodes.clear();
+        shape = new Shape(OpenAiHttp.HistoryView.EMPTY, shape.nextId(), new long[0], NONE);
+    }
+
+    // =================== Leitura ===================
+
+    /** Estado atual, imutável; continua válido depois de mutações seguintes. */
+    public Shape shape() {
+        return shape;
+    }
+
+    /** Conversa atual (raiz → head). */
+    public OpenAiHttp.HistoryView branch() {
+        return shape.branch();
+    }
+
+    /** Bytes aproximados de todos os nós, de todos os ramos. */
+    public long estimatedBytes() {
+        return nodes.estimatedBytes();
+    }
+
+    public static final class Shape {
+        private final OpenAiHttp.HistoryView nodes; // todos os nós, por ordem de id
+        private final long firstId;
+        private final long[] parents;               // parents[i] = pai do nó firstId + i, ou NONE
+        private final long head;
+        private Branch branch;                      // calculado na 1.ª leitura (corrida benigna)
+
+        private Shape(OpenAiHttp.HistoryView nodes, long firstId, long[] parents, long head) {
+            this.nodes = nodes;
+            this.firstId = firstId;
+            this.parents = parents;
+            this.head = head;
+        }
+
+        public int size() { return parents.length; }
+        public long firstId() { return firstId; }
+        public long nextId() { return firstId + parents.length; }
+        public long head() { return head; }
+
+        public boolean contains(long id) {
+            return id >= firstId && id < nextId();
+        }
+
+        /** Todos os nós por ordem de id (para gravar em disco); {@code nodeId(i)} dá o id. */
+        public OpenAiHttp.HistoryView nodes() {
+            return new Branch(this, indexRange(0, parents.length));
+        }
+
+        /** Pai de {@code id}, ou {@link #NONE} se for raiz (ou se o pai já caiu). */
+        public long parent(long id) {
+            if (!contains(id)) return NONE;
+            long p = parents[(int) (id - firstId)];
+            return contains(p) ? p : NONE;
+        }
+
+        public String role(long id) { return nodes.role((int) (id - firstId)); }
+        public String text(long id) { return nodes.text((int) (id - firstId)); }
+        public long timestamp(long id) { return nodes.timestamp((int) (id - firstId)); }
+
+        public OpenAiHttp.HistoryView branch() {
+            Branch b = branch;
+            if (b == null) branch = b = (Branch) branch(head);
+            return b;
+        }
+
+        /** Caminho da raiz até {@code leaf} (vazio para {@link #NONE}). */
+        public OpenAiHttp.HistoryView branch(long leaf) {
+            int n = 0;
+            for (long id = leaf; contains(id); id = parent(id)) n++;
+            int[] path = new int[n];
+            for (long id = leaf; contains(id); id = parent(id)) path[--n] = (int) (id - firstId);
+            return new Branch(this, path);
+        }
+
+        /** Nós com o mesmo pai que {@code id} (ele incluído), por ordem de criação. */
+        public List<Long> siblings(long id) {
+            List<Long> out = new ArrayList<>();
+            if (!contains(id)) return out;
+            long p = parent(id);
+            for (long n = firstId; n < nextId(); n++) {
+                if (parent(n) == p) out.add(n);
+            }
+            return out;
+        }
+
+        /**
+         * Nó mais recente da sub-árvore de {@code id}: o fim do ramo que continua a partir
+         * dali. Os filhos têm sempre ids maiores que o pai, por isso basta uma passagem.
+         */
+        public long latestLeaf(long id) {
+            if (!contains(id)) return NONE;
+            boolean[] inside = new boolean[parents.length];
+            int start = (int) (id - firstId);
+            inside[start] = true;
+            long latest = id;
+            for (int i = start + 1; i < parents.length; i++) {
+                long p = parent(firstId + i);
+                if (p != NONE && inside[(int) (p - firstId)]) {
+                    inside[i] = true;
+                    latest = firstId + i;
+                }
+            }
+            return latest;
+        }
+
+        /** Fim de cada ramo (nós sem filhos), do mais recente para o mais antigo. */
+        public List<Long> leaves() {
+            boolean[] hasChild = new boolean[parents.length];
+            for (int i = 0; i < parents.length; i++) {
+                long p = parent(firstId + i);
+                if (p != NONE) hasChild[(int) (p - firstId)] = true;
+            }
+            List<Long> out = new ArrayList<>();
+            for (int i = parents.length - 1; i >= 0; i--) {
+                if (!hasChild[i]) out.add(firstId + i);
+            }
+            return out;
+        }
+
+        private static int[] indexRange(int from, int to) {
+            int[] r = new int[to - from];
+            for (int i = 0; i < r.length; i++) r[i] = from + i;
+            return r;
+        }
+    }
+
+    // Vista de um caminho: só índices para o store partilhado, nada é copiado
+    private static final class Branch implements OpenAiHttp.HistoryView {
+        final Shape shape;
+        final int[] path;
+
+        Branch(Shape shape, int[] path) {
+            this.shape = shape;
+            this.path = path;
+        }
+
+        @Override public int size() { return path.length; }
+        @Override public String role(int i) { return shape.nodes.role(path[i]); }
+        @Override public int length(int i) { return shape.nodes.length(path[i]); }
+        @Override public String text(int i) { return shape.nodes.text(path[i]); }
+        @Override public long timestamp(int i) { return shape.nodes.timestamp(path[i]); }
+        @Override public long nodeId(int i) { return shape.firstId + path[i]; }
+    }
+}
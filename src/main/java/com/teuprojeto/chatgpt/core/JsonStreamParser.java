@@ -0,0 +1,255 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser JSON incremental (push): recebe os fragmentos tal como chegam do stream e
+ * avisa assim que cada valor fica completo, com o caminho até ele
+ * (ex.: {@code edits[0].search}). Cada carácter é visto uma só vez — nunca volta a
+ * ler o que já foi consumido. Strings chegam já sem escapes; números como
+ * {@link BigDecimal}.
+ */
+public final class JsonStreamParser {
+
+    public interface Handler {
+        /** Valor primitivo completo: String, BigDecimal, Boolean ou {@code null}. */
+        void onValue(String path, Object value);
+
+        /** Objeto ou array completo (todos os filhos já foram emitidos). */
+        default void onEnd(String path, boolean array) {}
+    }
+
+    private enum State { VALUE, KEY_OR_END, KEY, COLON, COMMA_OR_END, STRING, NUMBER, LITERAL, DONE }
+
+    private static final class Frame {
+        final boolean array;
+        final String path;
+        int index = -1;
+        String key;
+
+        Frame(boolean array, String path) {
+            this.array = array;
+            this.path = path;
+        }
+
+        String child() {
+            if (array) return path + "[" + index + "]";
+            return path.isEmpty() ? key : path + "." + key;
+        }
+    }
+
+    private final Handler handler;
+    private final List<Frame> stack = new ArrayList<>();
+    private final StringBuilder token = new StringBuilder();
+    private State state = State.VALUE;
+    private boolean readingKey;
+    private int escape;        // 0 = nada, 1 = depois de '\', 2..5 = dígitos de \\uXXXX
+    private int unicode;
+    private String error;
+
+    public JsonStreamParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length() && error == null; i++) {
+            char c = chunk.charAt(i);
+            // números e literais só acabam no carácter seguinte, que tem de ser reprocessado
+            if (state == State.NUMBER && !isNumberChar(c)) endNumber();
+            else if (state == State.LITERAL && !Character.isLetter(c)) endLiteral();
+            if (error == null) consume(c);
+        }
+    }
+
+    /** Fim do stream: fecha um número solto no fim (ex.: documento "42"). */
+    public void finish() {
+        if (state == State.NUMBER) endNumber();
+        else if (state == State.LITERAL) endLiteral();
+    }
+
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /** Mensagem do primeiro erro de sintaxe, ou {@code null}. Depois de um erro o resto é ignorado. */
+    public String getError() {
+        return error;
+    }
+
+    private void consume(char c) {
+        switch (state) {
+            case STRING -> string(c);
+            case NUMBER, LITERAL -> token.append(c);
+            case DONE -> {
+                if (!Character.isWhitespace(c)) fail("conteúdo depois do fim", c);
+            }
+            default -> structural(c);
+        }
+    }
+
+    private void structural(char c) {
+        if (Character.isWhitespace(c)) return;
+        switch (state) {
+            case VALUE -> startValue(c);
+            case KEY_OR_END -> {
+                if (c == '}') endContainer(false);
+                else if (c == '"') startString(true);
+                else fail("esperava chave", c);
+            }
+            case KEY -> {
+                if (c == '"') startString(true);
+                else fail("esperava chave", c);
+            }
+            case COLON -> {
+                if (c == ':') state = State.VALUE;
+                else fail("esperava ':'", c);
+            }
+            case COMMA_OR_END -> {
+                Frame top = top();
+                if (c == ',') {
+                    if (top.array) {
+                        top.index++;
+                        state = State.VALUE;
+                    } else {
+                        state = State.KEY;
+                    }
+                } else if (c == (top.array ? ']' : '}')) {
+                    endContainer(top.array);
+                } else {
+                    fail("esperava ',' ou fim", c);
+                }
+            }
+            default -> fail("estado inválido", c);
+        }
+    }
+
+    private void startValue(char c) {
+        switch (c) {
+            case '{' -> {
+                stack.add(new Frame(false, currentPath()));
+                state = State.KEY_OR_END;
+            }
+            case '[' -> {
+                Frame f = new Frame(true, currentPath());
+                f.index = 0;
+                stack.add(f);
+                state = State.VALUE;
+            }
+            case ']' -> {
+                // array vazio: "[" seguido de "]"
+                Frame top = stack.isEmpty() ? null : top();
+                if (top != null && top.array && top.index == 0) {
+                    top.index = -1;
+                    endContainer(true);
+                } else {
+                    fail("']' inesperado", c);
+                }
+            }
+            case '"' -> startString(false);
+            default -> {
+                token.setLength(0);
+                token.append(c);
+                if (c == '-' || (c >= '0' && c <= '9')) state = State.NUMBER;
+                else if (c == 't' || c == 'f' || c == 'n') state = State.LITERAL;
+                else fail("valor inválido", c);
+            }
+        }
+    }
+
+    private void startString(boolean key) {
+        token.setLength(0);
+        readingKey = key;
+        escape = 0;
+        state = State.STRING;
+    }
+
+    private void string(char c) {
+        if (escape == 1) {
+            escape = 0;
+            switch (c) {
+                case 'n' -> token.append('\n');
+                case 't' -> token.append('\t');
+                case 'r' -> token.append('\r');
+                case 'b' -> token.append('\b');
+                case 'f' -> token.append('\f');
+                case 'u' -> {
+                    escape = 2;
+                    unicode = 0;
+                }
+                default -> token.append(c); // \" \\ \/
+            }
+        } else if (escape >= 2) {
+            int d = Character.digit(c, 16);
+            if (d < 0) {
+                fail("escape \\u inválido", c);
+                return;
+            }
+            unicode = unicode * 16 + d;
+            if (++escape == 6) {
+                token.append((char) unicode);
+                escape = 0;
+            }
+        } else if (c == '\\') {
+            escape = 1;
+        } else if (c == '"') {
+            if (readingKey) {
+                top().key = token.toString();
+                state = State.COLON;
+            } else {
+                emit(token.toString());
+            }
+        } else {
+            token.append(c);
+        }
+    }
+
+    private void endNumber() {
+        try {
+            emit(new BigDecimal(token.toString()));
+        } catch (NumberFormatException e) {
+            fail("número inválido '" + token + "'", ' ');
+        }
+    }
+
+    private void endLiteral() {
+        switch (token.toString()) {
+            case "true" -> emit(Boolean.TRUE);
+            case "false" -> emit(Boolean.FALSE);
+            case "null" -> emit(null);
+            default -> fail("literal inválido '" + token + "'", ' ');
+        }
+    }
+
+    private void emit(Object value) {
+        handler.onValue(currentPath(), value);
+        afterValue();
+    }
+
+    private void endContainer(boolean array) {
+        Frame f = stack.remove(stack.size() - 1);
+        handler.onEnd(f.path, array);
+        afterValue();
+    }
+
+    private void afterValue() {
+        state = stack.isEmpty() ? State.DONE : State.COMMA_OR_END;
+    }
+
+    private String currentPath() {
+        return stack.isEmpty() ? "" : top().child();
+    }
+
+    private Frame top() {
+        return stack.get(stack.size() - 1);
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private void fail(String msg, char c) {
+        error = msg + (c != ' ' ? " em '" + c + "'" : "");
+    }
+}
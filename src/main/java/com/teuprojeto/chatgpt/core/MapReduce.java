@@ -0,0 +1,107 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Map-reduce para entradas maiores que a janela de contexto:
+ * cada parte é enviada em paralelo (concorrência limitada, e na faixa bulk do
+ * {@link RequestScheduler}), as respostas parciais são entregues à medida que
+ * terminam e no fim um pedido "reduce" junta-as.
+ */
+public final class MapReduce {
+
+    // aproximação grosseira usada em todo o plugin: ~4 chars por token
+    public static final int CHARS_PER_TOKEN = 4;
+
+    private MapReduce() {}
+
+    public interface Listener {
+        /** Chamado (numa thread de fundo) quando a parte {@code index} termina. */
+        void onPartial(int index, int total, String answer);
+    }
+
+    public static int estimateTokens(CharSequence text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Corre o map sobre {@code chunks} e devolve a resposta combinada.
+     * Se houver só uma parte, não faz reduce.
+     */
+    public static String run(String apiKey, String model, List<String> chunks, String label,
+                             int parallelism, int reduceBudgetTokens,
+                             Listener listener, BooleanSupplier cancelled) throws IOException {
+        final int total = chunks.size();
+        final String[] partials = new String[total];
+
+        // threads do pool da aplicação; o shutdown só descarta as partes ainda por começar,
+        // as que já estão a correr param por {@code stop}
+        ExecutorService pool = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "ChatGPT map", Math.max(1, Math.min(parallelism, total)));
+        AtomicBoolean abort = new AtomicBoolean();
+        BooleanSupplier stop = () -> abort.get() || cancelled.getAsBoolean();
+        try {
+            CompletionService<Integer> cs = new ExecutorCompletionService<>(pool);
+            for (int i = 0; i < total; i++) {
+                final int idx = i;
+                cs.submit(() -> {
+                    if (stop.getAsBoolean()) throw new CancellationException();
+                    partials[idx] = RequestScheduler.call(RequestScheduler.Lane.BULK, stop, () ->
+                            OpenAiHttp.chat(apiKey, model, mapPrompt(idx, total, label, chunks.get(idx)), 0.2));
+                    return idx;
+                });
+            }
+            for (int done = 0; done < total; done++) {
+                Future<Integer> f = cs.take();
+                int idx = f.get();
+                if (listener != null) listener.onPartial(idx, total, partials[idx]);
+                if (cancelled.getAsBoolean()) throw new CancellationException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException io) throw io;
+            if (c instanceof CancellationException ce) throw ce;
+            throw new IOException(c);
+        } finally {
+            abort.set(true);
+            pool.shutdownNow();
+        }
+
+        if (total == 1) return partials[0];
+        // o reduce é o que o utilizador está à espera de ver: sai da faixa bulk
+        return RequestScheduler.call(RequestScheduler.Lane.EDITOR, cancelled, () ->
+                OpenAiHttp.chat(apiKey, model, reducePrompt(partials, label, reduceBudgetTokens), 0.2));
+    }
+
+    // =================== Prompts ===================
+
+    private static String mapPrompt(int idx, int total, String label, String chunk) {
+        return "Parte " + (idx + 1) + " de " + total + " de um excerto maior (" + label + "). "
+                + "Responde ao pedido ou analisa o conteúdo considerando só esta parte; "
+                + "as respostas parciais vão depois ser combinadas.\n\n" + chunk;
+    }
+
+    private static String reducePrompt(String[] partials, String label, int budgetTokens) {
+        // cada parcial recebe uma fatia igual do orçamento do reduce
+        int perPartChars = Math.max(500, budgetTokens * CHARS_PER_TOKEN / partials.length);
+        StringBuilder sb = new StringBuilder()
+                .append("As respostas seguintes foram dadas a partes sucessivas do mesmo excerto (")
+                .append(label)
+                .append("). Combina-as numa única resposta coerente, sem repetir informação.\n");
+        for (int i = 0; i < partials.length; i++) {
+            String p = partials[i] == null ? "" : partials[i];
+            if (p.length() > perPartChars) p = p.substring(0, perPartChars) + "…";
+            sb.append("\n### Parte ").append(i + 1).append("\n").append(p).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores e tempos do plugin, em memória, para o diálogo de estatísticas.
+ * Os nomes seguem "área.métrica" (ex.: "inline.cancel.caret").
+ */
+public final class Metrics {
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    // =================== API ===================
+
+    public static void inc(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long count(String name) {
+        LongAdder a = COUNTERS.get(name);
+        return a == null ? 0 : a.sum();
+    }
+
+    public static void record(String name, long millis) {
+        TIMERS.computeIfAbsent(name, k -> new Timer()).record(millis);
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        if (!COUNTERS.isEmpty()) {
+            sb.append("Contadores\n");
+            new TreeMap<>(COUNTERS).forEach((k, v) -> sb.append(String.format("  %-36s %10d%n", k, v.sum())));
+        }
+        if (!TIMERS.isEmpty()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format("Tempos (ms)%n  %-36s %7s %7s %7s %7s %7s%n", "", "n", "média", "p50", "p95", "máx"));
+            new TreeMap<>(TIMERS).forEach((k, t) -> sb.append(String.format("  %-36s %s%n", k, t.summary())));
+        }
+        return sb.length() == 0 ? "(sem dados ainda)" : sb.toString();
+    }
+
+    // =================== Timer ===================
+
+    /** Contagem/média/máximo de sempre e percentis sobre as últimas {@link #WINDOW} amostras. */
+    private static final class Timer {
+        private static final int WINDOW = 256;
+
+        private final long[] recent = new long[WINDOW];
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void record(long millis) {
+            recent[(int) (count % WINDOW)] = millis;
+            count++;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+
+        synchronized String summary() {
+            int n = (int) Math.min(count, WINDOW);
+            long[] sorted = Arrays.copyOf(recent, n);
+            Arrays.sort(sorted);
+            long p50 = n == 0 ? 0 : sorted[(n - 1) / 2];
+            long p95 = n == 0 ? 0 : sorted[(int) Math.ceil(n * 0.95) - 1];
+            long avg = count == 0 ? 0 : total / count;
+            return String.format("%7d %7d %7d %7d %7d", count, avg, p50, p95, max);
+        }
+    }
+}
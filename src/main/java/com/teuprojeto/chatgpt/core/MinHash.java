@@ -0,0 +1,102 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assinaturas MinHash sobre o fluxo de tokens de um prompt.
+ * O texto é normalizado (espaços ignorados, minúsculas) e partido em shingles de
+ * {@link #SHINGLE} tokens, por isso diferenças de indentação, um local renomeado
+ * ou uma linha deslocada mexem apenas em poucos shingles.
+ */
+public final class MinHash {
+
+    public static final int NUM_HASHES = 128;
+    public static final int BANDS = 32;
+    public static final int ROWS = NUM_HASHES / BANDS;
+
+    private static final int SHINGLE = 3;
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long s = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            s = mix(s + i);
+            SEEDS[i] = s;
+        }
+    }
+
+    private MinHash() {}
+
+    // =================== Tokens ===================
+
+    /** Identificadores/números como um token, pontuação como tokens de 1 char; espaços descartados. */
+    public static List<String> tokenize(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (word.length() > 0) {
+                out.add(word.toString());
+                word.setLength(0);
+            }
+            if (!Character.isWhitespace(c)) out.add(String.valueOf(c));
+        }
+        if (word.length() > 0) out.add(word.toString());
+        return out;
+    }
+
+    // =================== Assinatura ===================
+
+    public static int[] signature(CharSequence text) {
+        List<String> tokens = tokenize(text);
+        int[] sig = new int[NUM_HASHES];
+        Arrays.fill(sig, Integer.MAX_VALUE);
+        addShingles(tokens, false, sig);
+        // "forma" do código (identificadores anónimos): um local renomeado não muda estes shingles
+        addShingles(tokens, true, sig);
+        return sig;
+    }
+
+    private static void addShingles(List<String> tokens, boolean shape, int[] sig) {
+        int n = Math.max(1, tokens.size() - SHINGLE + 1);
+        for (int start = 0; start < n; start++) {
+            long h = shape ? 0x84222325cbf29ce4L : 0xcbf29ce484222325L;
+            for (int k = start; k < Math.min(tokens.size(), start + SHINGLE); k++) {
+                String t = tokens.get(k);
+                int th = (shape && Character.isLetter(t.charAt(0))) ? 'i' : t.hashCode();
+                h = (h ^ th) * 0x100000001b3L;
+            }
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int v = (int) (mix(h ^ SEEDS[i]) >>> 33);
+                if (v < sig[i]) sig[i] = v;
+            }
+        }
+    }
+
+    /** Estimativa de Jaccard: fração de posições iguais. */
+    public static double similarity(int[] a, int[] b) {
+        int eq = 0;
+        for (int i = 0; i < NUM_HASHES; i++) if (a[i] == b[i]) eq++;
+        return (double) eq / NUM_HASHES;
+    }
+
+    /** Chave LSH da banda {@code band} (as assinaturas colidem se a banda for igual). */
+    public static long bandKey(int[] sig, int band) {
+        long h = band;
+        for (int r = 0; r < ROWS; r++) h = mix(h * 31 + sig[band * ROWS + r]);
+        return h;
+    }
+
+    // splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,220 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Escolha de modelo para a opção "auto". Cada pedido que passa pelo {@link OpenAiHttp}
+ * alimenta, por modelo, uma EWMA do tempo até ao primeiro token e do débito (chars/s);
+ * a escolha é o modelo com menor tempo estimado entre os que cabem o prompt e chegam ao
+ * nível de qualidade pedido. Um modelo cuja cauda (p95 recente do primeiro token) dispare,
+ * ou que falhe seguidamente, fica de fora durante {@link #COOLDOWN_MS}. Cada decisão fica
+ * no registo (diálogo de estatísticas e idea.log em debug).
+ */
+public final class ModelRouter {
+
+    private static final Logger LOG = Logger.getInstance(ModelRouter.class);
+
+    public static final String AUTO = "auto";
+
+    public enum Tier { FAST, QUALITY }
+
+    private static final double ALPHA = 0.2;           // EWMA "rápida"
+    private static final double ALPHA_BASELINE = 0.02; // referência lenta para a cauda
+    private static final int WINDOW = 32;
+    private static final int MIN_SAMPLES_FOR_TAIL = 8;
+    private static final double TAIL_FACTOR = 3.0;
+    private static final long TAIL_FLOOR_MS = 4_000;
+    private static final int MAX_FAILURES = 3;
+    private static final long COOLDOWN_MS = 60_000;
+    private static final int EXPECTED_OUTPUT_CHARS = 1_500;
+    private static final int OUTPUT_RESERVE_TOKENS = 4_000;
+    private static final int LOG_SIZE = 100;
+
+    private static final class Model {
+        final String id;
+        final Tier tier;
+        final int contextTokens;
+        double ttftMs;        // EWMA; começa num valor a priori para os modelos ainda não usados
+        double charsPerSec;
+        double baselineTtft;
+        final long[] recent = new long[WINDOW];
+        int samples;
+        int failures;
+        long excludedUntil;
+
+        Model(String id, Tier tier, int contextTokens, double ttftMs, double charsPerSec) {
+            this.id = id;
+            this.tier = tier;
+            this.contextTokens = contextTokens;
+            this.ttftMs = ttftMs;
+            this.charsPerSec = charsPerSec;
+            this.baselineTtft = ttftMs;
+        }
+
+        double estimateMs(int outputChars) {
+            return ttftMs + outputChars * 1000.0 / Math.max(1, charsPerSec);
+        }
+
+        long p95() {
+            int n = Math.min(samples, WINDOW);
+            if (n == 0) return 0;
+            long[] sorted = Arrays.copyOf(recent, n);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(n * 0.95) - 1];
+        }
+
+        boolean tailDegraded() {
+            return samples >= MIN_SAMPLES_FOR_TAIL && p95() > Math.max(TAIL_FLOOR_MS, TAIL_FACTOR * baselineTtft);
+        }
+    }
+
+    private static final Map<String, Model> MODELS = new LinkedHashMap<>();
+    private static final Deque<String> DECISIONS = new ArrayDeque<>();
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    static {
+        add(new Model("gpt-4o-mini", Tier.FAST, 128_000, 700, 250));
+        add(new Model("gpt-4.1-mini", Tier.FAST, 1_000_000, 800, 250));
+        add(new Model("gpt-4o", Tier.QUALITY, 128_000, 1_000, 150));
+        add(new Model("gpt-4.1", Tier.QUALITY, 1_000_000, 1_200, 150));
+    }
+
+    private static void add(Model m) {
+        MODELS.put(m.id, m);
+    }
+
+    private ModelRouter() {}
+
+    // =================== Escolha ===================
+
+    /** {@code requested} tal e qual, ou a escolha automática se for {@link #AUTO}. */
+    public static String resolve(String requested, String prompt, int contextChars) {
+        if (!AUTO.equals(requested)) return requested;
+        return choose(tierFor(prompt), MapReduce.estimateTokens(prompt) + contextChars / MapReduce.CHARS_PER_TOKEN);
+    }
+
+    /**
+     * Nível pedido pelo prompt: código (blocos ```), prompts longos ou pedidos de
+     * revisão/refactor vão para QUALITY; o resto chega com FAST.
+     */
+    public static Tier tierFor(String prompt) {
+        if (prompt == null) return Tier.FAST;
+        String p = prompt.toLowerCase();
+        if (p.contains("```") || p.length() > 2_000) return Tier.QUALITY;
+        for (String k : new String[]{"refactor", "revê", "review", "arquitetura", "design"}) {
+            if (p.contains(k)) return Tier.QUALITY;
+        }
+        return Tier.FAST;
+    }
+
+    /** Modelo mais rápido (estimado) com nível ≥ {@code tier} e janela para {@code promptTokens}. */
+    public static synchronized String choose(Tier tier, int promptTokens) {
+        long now = System.currentTimeMillis();
+        Model best = null, fallback = null;
+        StringBuilder scores = new StringBuilder();
+        for (Model m : MODELS.values()) {
+            if (m.tier.ordinal() < tier.ordinal()) continue;
+            if (promptTokens + OUTPUT_RESERVE_TOKENS > m.contextTokens) continue;
+            if (fallback == null || m.contextTokens > fallback.contextTokens) fallback = m;
+            double est = m.estimateMs(EXPECTED_OUTPUT_CHARS);
+            boolean excluded = m.excludedUntil > now;
+            scores.append(String.format(" %s=%.0fms%s", m.id, est, excluded ? "(fora)" : ""));
+            if (excluded) continue;
+            if (best == null || est < best.estimateMs(EXPECTED_OUTPUT_CHARS)) best = m;
+        }
+        String reason;
+        if (best != null) {
+            reason = "mais rápido";
+        } else if (fallback != null) {
+            best = fallback; // todos os elegíveis em pausa: usa o que tiver mais janela
+            reason = "todos degradados";
+        } else {
+            best = MODELS.values().stream().max((a, b) -> Integer.compare(a.contextTokens, b.contextTokens)).orElseThrow();
+            reason = "nenhum cabe; maior janela";
+        }
+        log(String.format("%s %s ~%d tok → %s (%s);%s",
+                LocalTime.now().format(TIME), tier, promptTokens, best.id, reason, scores));
+        Metrics.inc("router.pick." + best.id);
+        return best.id;
+    }
+
+    // =================== Medições (chamadas pelo OpenAiHttp) ===================
+
+    /**
+     * Pedido terminado. {@code ttftMs} &lt; 0 quando não há streaming (aí só o débito,
+     * calculado sobre o tempo total, é atualizado).
+     */
+    static synchronized void observe(String modelId, long ttftMs, long outputChars, long totalMs) {
+        Model m = MODELS.get(modelId);
+        if (m == null) return;
+        m.failures = 0;
+        if (ttftMs >= 0) {
+            m.ttftMs += ALPHA * (ttftMs - m.ttftMs);
+            m.baselineTtft += ALPHA_BASELINE * (ttftMs - m.baselineTtft);
+            sample(m, ttftMs);
+        }
+        long genMs = totalMs - Math.max(0, ttftMs);
+        if (outputChars > 0 && genMs > 0) {
+            m.charsPerSec += ALPHA * (outputChars * 1000.0 / genMs - m.charsPerSec);
+        }
+        if (m.tailDegraded()) exclude(m, "p95 do 1.º token " + m.p95() + " ms");
+    }
+
+    /** Timeout, 5xx ou 429: conta como amostra lenta e, repetido, tira o modelo de circulação. */
+    static synchronized void failed(String modelId, long elapsedMs) {
+        Model m = MODELS.get(modelId);
+        if (m == null) return;
+        sample(m, Math.max(elapsedMs, TAIL_FLOOR_MS));
+        if (++m.failures >= MAX_FAILURES) exclude(m, m.failures + " falhas seguidas");
+        else if (m.tailDegraded()) exclude(m, "p95 do 1.º token " + m.p95() + " ms");
+    }
+
+    private static void sample(Model m, long ms) {
+        m.recent[m.samples % WINDOW] = ms;
+        m.samples++;
+    }
+
+    private static void exclude(Model m, String why) {
+        long now = System.currentTimeMillis();
+        if (m.excludedUntil > now) return;
+        m.excludedUntil = now + COOLDOWN_MS;
+        // recomeça limpo: depois da pausa volta com a referência lenta e é medido de novo
+        m.ttftMs = m.baselineTtft;
+        m.samples = 0;
+        m.failures = 0;
+        Metrics.inc("router.failover");
+        log(String.format("%s %s fora por %d s (%s)", LocalTime.now().format(TIME), m.id, COOLDOWN_MS / 1000, why));
+    }
+
+    private static void log(String line) {
+        LOG.debug(line);
+        DECISIONS.addLast(line);
+        while (DECISIONS.size() > LOG_SIZE) DECISIONS.removeFirst();
+    }
+
+    // =================== Relatório ===================
+
+    /** Estado por modelo e as últimas decisões, para o diálogo de estatísticas. */
+    public static synchronized String report() {
+        StringBuilder sb = new StringBuilder("Modelos (auto):");
+        long now = System.currentTimeMillis();
+        for (Model m : MODELS.values()) {
+            sb.append(String.format("%n  %-13s %-7s 1.º token ~%.0f ms (p95 %d), %.0f chars/s%s",
+                    m.id, m.tier, m.ttftMs, m.p95(), m.charsPerSec,
+                    m.excludedUntil > now ? ", fora mais " + (m.excludedUntil - now) / 1000 + " s" : ""));
+        }
+        if (!DECISIONS.isEmpty()) {
+            sb.append(String.format("%nÚltimas decisões:"));
+            DECISIONS.stream().skip(Math.max(0, DECISIONS.size() - 15)).forEach(d -> sb.append("\n  ").append(d));
+        }
+        return sb.toString();
+    }
+}
@@ -1,30 +1,60 @@
 package com.teuprojeto.chatgpt.core;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.intellij.openapi.diagnostic.Logger;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
 import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
 import okio.BufferedSource;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+import okio.Source;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
 import java.util.function.Consumer;
 
 public final class OpenAiHttp {
 
-    private static final String OPENAI_BASE = "https://api.openai.com/v1";
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final Logger LOG = Logger.getInstance(OpenAiHttp.class);
 
-    // readTimeout = 0 para suportar streaming
-    private static final OkHttpClient HTTP = new OkHttpClient.Builder()
-            .readTimeout(0, TimeUnit.SECONDS)
-            .build();
+    private static final String OPENAI_BASE = "https://api.openai.com/v1";
+    private static final String DEFAULT_SYSTEM = "Responde em português de Portugal e trata o utilizador por tu.";
+
+    // OkHttp (e o seu pool/threads) só é carregado no primeiro pedido, não quando
+    // alguém toca nesta classe (ex.: HistoryView no arranque)
+    private static final class Net {
+        static final MediaType JSON;
+        static final OkHttpClient HTTP;
+
+        static {
+            StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.HTTP_INIT);
+            JSON = MediaType.get("application/json; charset=utf-8");
+            // readTimeout = 0 para suportar streaming
+            HTTP = new OkHttpClient.Builder()
+                    .readTimeout(0, TimeUnit.SECONDS)
+                    .build();
+            mark.end();
+        }
+    }
 
     private OpenAiHttp() {}
 
@@ -48,59 +78,92 @@ public final class OpenAiHttp {
         return arr;
     }
 
-    // Constrói lista de mensagens com histórico (capado por tamanho),
-    // + um system prompt fixo.
-    private static List<Map<String, Object>> buildMessages(
-            List<HistoryMsg> history,
-            String userPrompt,
-            String systemPrompt,
-            int maxChars
-    ) {
-        final String SYSTEM = (systemPrompt == null || systemPrompt.isBlank())
-                ? "Responde em português de Portugal e trata o utilizador por tu."
-                : systemPrompt.trim();
-        final int MAX_CHARS = Math.max(1000, maxChars);
+    private static String system(String systemPrompt) {
+        return (systemPrompt == null || systemPrompt.isBlank()) ? DEFAULT_SYSTEM : systemPrompt.trim();
+    }
 
-        List<Map<String, Object>> msgs = new ArrayList<>();
-        msgs.add(msg("system", SYSTEM));
-
-        int total = SYSTEM.length();
-        if (history != null && !history.isEmpty()) {
-            List<Map<String, Object>> rev = new ArrayList<>();
-            ListIterator<HistoryMsg> it = history.listIterator(history.size());
-            while (it.hasPrevious()) {
-                HistoryMsg h = it.previous();
-                String role = ("assistant".equalsIgnoreCase(h.role)) ? "assistant" : "user";
-                String content = h.text != null ? h.text : "";
-                if (total + content.length() > MAX_CHARS) break;
-                rev.add(msg(role, content));
-                total += content.length();
-            }
-            Collections.reverse(rev);
-            msgs.addAll(rev);
+    // Primeira mensagem do histórico que cabe no orçamento (com o system prompt).
+    // Usa só os comprimentos da vista; o texto só é lido (e descomprimido) para as
+    // mensagens que entram, e nem isso quando o prefixo já está no PrefixCache.
+    private static int windowStart(HistoryView history, String system, int maxChars) {
+        final int MAX_CHARS = Math.max(1000, maxChars);
+        int total = system.length();
+        int first = history != null ? history.size() : 0;
+        while (first > 0 && total + history.length(first - 1) <= MAX_CHARS) {
+            total += history.length(first - 1);
+            first--;
         }
+        return first;
+    }
+
+    // Array "messages" já em JSON: system + histórico[first..] + prompt
+    private static String messagesJson(HistoryView history, int first, String system, String userPrompt) {
+        StringBuilder sb = new StringBuilder(PrefixCache.prefix(history, first, system));
+        PrefixCache.append(sb, "user", userPrompt);
+        return sb.append(']').toString();
+    }
 
+    private static List<Map<String, Object>> promptOnly(String system, String userPrompt) {
+        List<Map<String, Object>> msgs = new ArrayList<>();
+        msgs.add(msg("system", system));
         msgs.add(msg("user", userPrompt));
         return msgs;
     }
 
+    // =================== Cache exata ===================
+
+    // Só para pedidos sem histórico nenhum: com contexto a mesma pergunta pode ter outra
+    // resposta. Só a cache exata partilhada com os outros IDEs (se ligada); a cache por
+    // semelhança não entra aqui, é a tool window que a oferece como sugestão.
+    private static String cachedAnswer(String model, String systemPrompt, double temperature, String prompt) {
+        SharedCoordinator shared = SharedCoordinator.ifEnabled();
+        return shared != null ? shared.lookup(model, systemPrompt, temperature, prompt) : null;
+    }
+
+    private static void remember(String model, String systemPrompt, double temperature, String prompt, String answer) {
+        SharedCoordinator shared = SharedCoordinator.ifEnabled();
+        if (shared != null) shared.store(model, systemPrompt, temperature, prompt, answer);
+    }
+
+    private static String callCached(String apiKey, String model, String systemPrompt, String prompt,
+                                     List<Map<String, Object>> msgs, double temperature) throws IOException {
+        String cached = cachedAnswer(model, systemPrompt, temperature, prompt);
+        if (cached != null) return cached;
+        String answer = callChatCompletions(apiKey, newBody(model, msgs, temperature));
+        remember(model, systemPrompt, temperature, prompt, answer);
+        return answer;
+    }
+
+    private static boolean streamCached(String apiKey, String model, String systemPrompt, String prompt,
+                                        List<Map<String, Object>> msgs, double temperature,
+                                        Consumer<String> onDelta, Runnable onDone) throws IOException {
+        String cached = cachedAnswer(model, systemPrompt, temperature, prompt);
+        if (cached != null) {
+            onDelta.accept(cached);
+            if (onDone != null) onDone.run();
+            return true;
+        }
+        StringBuilder acc = new StringBuilder();
+        boolean complete = streamChatCompletions(apiKey, newBody(model, msgs, temperature), d -> {
+            acc.append(d);
+            onDelta.accept(d);
+        }, onDone);
+        // uma resposta cortada a meio (erro de rede, cancelamento) não vai para a cache
+        if (complete) remember(model, systemPrompt, temperature, prompt, acc.toString());
+        return complete;
+    }
+
     // =================== API: sem histórico (compat) ===================
 
     public static String chat(String apiKey, String model, String prompt, double temperature) throws IOException {
-        List<Map<String, Object>> msgs = new ArrayList<>();
-        msgs.add(msg("system", "Responde em português de Portugal e trata o utilizador por tu."));
-        msgs.add(msg("user", prompt));
-        return callChatCompletions(apiKey, model, msgs, temperature);
+        return callCached(apiKey, model, DEFAULT_SYSTEM, prompt, promptOnly(DEFAULT_SYSTEM, prompt), temperature);
     }
 
-    public static void chatStream(
+    public static boolean chatStream(
             String apiKey, String model, String prompt, double temperature,
             Consumer<String> onDelta, Runnable onDone
     ) throws IOException {
-        List<Map<String, Object>> msgs = new ArrayList<>();
-        msgs.add(msg("system", "Responde em português de Portugal e trata o utilizador por tu."));
-        msgs.add(msg("user", prompt));
-        streamChatCompletions(apiKey, model, msgs, temperature, onDelta, onDone);
+        return streamCached(apiKey, model, DEFAULT_SYSTEM, prompt, promptOnly(DEFAULT_SYSTEM, prompt), temperature, onDelta, onDone);
     }
 
     // =================== API: com histórico ===================
@@ -110,76 +173,540 @@ public final class OpenAiHttp {
             List<HistoryMsg> history, String userPrompt, double temperature,
             String systemPrompt, int maxContextChars
     ) throws IOException {
-        List<Map<String, Object>> msgs = buildMessages(history, userPrompt, systemPrompt, maxContextChars);
-        return callChatCompletions(apiKey, model, msgs, temperature);
+        return chatWithHistory(apiKey, model, HistoryView.of(history), userPrompt, temperature, systemPrompt, maxContextChars, true);
     }
 
-    public static void chatStreamWithHistory(
+    public static boolean chatStreamWithHistory(
             String apiKey, String model,
             List<HistoryMsg> history, String userPrompt, double temperature,
             java.util.function.Consumer<String> onDelta, Runnable onDone,
             String systemPrompt, int maxContextChars
     ) throws IOException {
-        List<Map<String, Object>> msgs = buildMessages(history, userPrompt, systemPrompt, maxContextChars);
-        streamChatCompletions(apiKey, model, msgs, temperature, onDelta, onDone);
+        return chatStreamWithHistory(apiKey, model, HistoryView.of(history), userPrompt, temperature,
+                onDelta, onDone, systemPrompt, maxContextChars, true);
+    }
+
+    /**
+     * Com {@code useCache} a false (ex.: pedir outra resposta à mesma pergunta) um pedido
+     * sem histórico também vai à API em vez de devolver a resposta já guardada.
+     */
+    public static String chatWithHistory(
+            String apiKey, String model,
+            HistoryView history, String userPrompt, double temperature,
+            String systemPrompt, int maxContextChars, boolean useCache
+    ) throws IOException {
+        String system = system(systemPrompt);
+        int first = windowStart(history, system, maxContextChars);
+        if (useCache && (history == null || history.size() == 0)) {
+            return callCached(apiKey, model, system, userPrompt, promptOnly(system, userPrompt), temperature);
+        }
+        return callChatCompletions(apiKey, new Body(model,
+                messagesJson(history != null ? history : HistoryView.EMPTY, first, system, userPrompt), temperature));
+    }
+
+    /** Devolve true se a resposta chegou completa (o stream terminou com [DONE]). */
+    public static boolean chatStreamWithHistory(
+            String apiKey, String model,
+            HistoryView history, String userPrompt, double temperature,
+            Consumer<String> onDelta, Runnable onDone,
+            String systemPrompt, int maxContextChars, boolean useCache
+    ) throws IOException {
+        String system = system(systemPrompt);
+        int first = windowStart(history, system, maxContextChars);
+        if (useCache && (history == null || history.size() == 0)) {
+            return streamCached(apiKey, model, system, userPrompt, promptOnly(system, userPrompt), temperature, onDelta, onDone);
+        }
+        return streamChatCompletions(apiKey, new Body(model,
+                messagesJson(history != null ? history : HistoryView.EMPTY, first, system, userPrompt), temperature),
+                onDelta, onDone);
+    }
+
+    // =================== API: completar (inline) ===================
+
+    /**
+     * Pedido curto em streaming com orçamento de tempo: a chamada é abortada ao fim de
+     * {@code budgetMs} e deixa de ler assim que {@code cancelled} devolver true.
+     */
+    public static void completeStream(
+            String apiKey, String model, String systemPrompt, String prompt,
+            int maxTokens, long budgetMs, Cancellation cancelled,
+            Consumer<String> onDelta
+    ) throws IOException {
+        Body body = newBody(model, promptOnly(systemPrompt, prompt), 0.0);
+        body.fields.addProperty("max_tokens", maxTokens);
+        body.fields.addProperty("stream", true);
+        readStream(apiKey, body, budgetMs, onDelta, null, cancelled);
+    }
+
+    /**
+     * Cancelamento de um pedido a partir de outra thread. Além de parar a leitura entre
+     * eventos, cancela o {@link Call} do OkHttp, o que desbloqueia logo uma leitura (ou
+     * a espera pela ligação) parada na rede.
+     */
+    public static final class Cancellation implements BooleanSupplier {
+        private volatile boolean cancelled;
+        private volatile Call call;
+
+        public void cancel() {
+            cancelled = true;
+            Call c = call;
+            if (c != null) c.cancel();
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            return cancelled;
+        }
+
+        void attach(Call c) {
+            call = c;
+            if (cancelled) c.cancel(); // cancelado enquanto o Call era criado
+        }
+    }
+
+    // =================== API: tool calls ===================
+
+    // rondas pedido → tool calls → resultados; na última o modelo tem de responder em texto
+    private static final int MAX_TOOL_ROUNDS = 3;
+
+    /**
+     * Eventos de uma resposta com tool calls. Os argumentos de cada tool call passam por
+     * um {@link JsonStreamParser}, por isso cada campo é entregue logo que fica completo,
+     * antes do fim da resposta. Os callbacks correm na thread que lê o stream.
+     */
+    public interface StructuredListener {
+        default void onContent(String delta) {}
+
+        /** Início da tool call {@code index}; o nome vem no primeiro fragmento. */
+        default void onToolCall(int index, String name) {}
+
+        /** Campo dos argumentos da tool call {@code index} completo. */
+        default void onToolField(int index, String path, Object value) {}
+
+        /** Argumentos da tool call {@code index} completos. */
+        default void onToolCallEnd(int index) {}
+
+        /**
+         * Resultado da tool call {@code index}, devolvido ao modelo para ele continuar a
+         * resposta. Chamado no fim de cada ronda; pode bloquear até a ferramenta terminar.
+         */
+        default String toolResult(int index) {
+            return "ok";
+        }
+
+        default void onDone() {}
+    }
+
+    // tool call de uma ronda, para a repetir no pedido seguinte junto com o resultado
+    private static final class ToolCall {
+        final int index;
+        final JsonStreamParser args;
+        String id = "";
+        String name = "";
+        final StringBuilder arguments = new StringBuilder();
+
+        ToolCall(int index, JsonStreamParser args) {
+            this.index = index;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Pedido em streaming com {@code tools} (formato "function" da API). Quando a resposta
+     * acaba em tool calls, os resultados ({@link StructuredListener#toolResult}) vão num
+     * pedido seguinte e o modelo continua a resposta; os índices das tool calls continuam
+     * a contar entre rondas. Não passa pela cache por semelhança.
+     */
+    public static void streamStructured(
+            String apiKey, String model,
+            HistoryView history, String userPrompt, double temperature,
+            String systemPrompt, int maxContextChars,
+            JsonArray tools, StructuredListener listener, BooleanSupplier cancelled
+    ) throws IOException {
+        String system = system(systemPrompt);
+        int first = windowStart(history, system, maxContextChars);
+        String messages = messagesJson(history != null ? history : HistoryView.EMPTY, first, system, userPrompt);
+        boolean hasTools = tools != null && tools.size() > 0;
+        int nextIndex = 0;
+        boolean wroteText = false;
+        try {
+            for (int round = 0; ; round++) {
+                Body body = new Body(model, messages, temperature);
+                body.fields.addProperty("stream", true);
+                if (hasTools) {
+                    body.fields.add("tools", tools);
+                    if (round == MAX_TOOL_ROUNDS) body.fields.addProperty("tool_choice", "none");
+                }
+
+                int base = nextIndex;
+                boolean separate = wroteText;
+                StringBuilder text = new StringBuilder();
+                TreeMap<Integer, ToolCall> calls = new TreeMap<>();
+                boolean complete = readEvents(apiKey, body, 0, delta -> {
+                    String piece = content(delta);
+                    if (piece != null) {
+                        if (text.length() == 0 && separate) listener.onContent("\n\n");
+                        text.append(piece);
+                        listener.onContent(piece);
+                    }
+                    JsonElement tcs = delta.get("tool_calls");
+                    if (tcs == null || !tcs.isJsonArray()) return;
+                    for (JsonElement el : tcs.getAsJsonArray()) {
+                        JsonObject tc = el.getAsJsonObject();
+                        int index = base + (tc.has("index") ? tc.get("index").getAsInt() : 0);
+                        JsonObject fn = tc.getAsJsonObject("function");
+                        if (fn == null) continue;
+                        ToolCall call = calls.get(index);
+                        if (call == null) {
+                            String name = fn.has("name") ? fn.get("name").getAsString() : "";
+                            Metrics.inc("tools.calls");
+                            listener.onToolCall(index, name);
+                            call = new ToolCall(index, new JsonStreamParser(new JsonStreamParser.Handler() {
+                                @Override
+                                public void onValue(String path, Object value) {
+                                    listener.onToolField(index, path, value);
+                                }
+
+                                @Override
+                                public void onEnd(String path, boolean array) {
+                                    if (path.isEmpty()) listener.onToolCallEnd(index);
+                                }
+                            }));
+                            call.name = name;
+                            calls.put(index, call);
+                        }
+                        if (tc.has("id") && !tc.get("id").isJsonNull()) call.id = tc.get("id").getAsString();
+                        JsonElement fragment = fn.get("arguments");
+                        if (fragment != null && !fragment.isJsonNull()) {
+                            String part = fragment.getAsString();
+                            call.arguments.append(part);
+                            boolean wasOk = call.args.getError() == null;
+                            call.args.feed(part);
+                            if (wasOk && call.args.getError() != null) Metrics.inc("tools.parse.error");
+                        }
+                    }
+                }, null, cancelled);
+                wroteText |= text.length() > 0;
+                if (!calls.isEmpty()) nextIndex = calls.lastKey() + 1;
+                if (!complete || calls.isEmpty() || cancelled.getAsBoolean() || round == MAX_TOOL_ROUNDS) return;
+
+                // a resposta foi só (ou também) tool calls: devolve os resultados e pede a continuação
+                Metrics.inc("tools.rounds");
+                messages = withToolResults(messages, text.toString(), calls.values(), listener);
+            }
+        } finally {
+            listener.onDone();
+        }
+    }
+
+    // "[…]" + a mensagem do assistente com as tool calls + uma mensagem "tool" por resultado
+    private static String withToolResults(String messages, String text, Collection<ToolCall> calls,
+                                          StructuredListener listener) {
+        JsonArray toolCalls = new JsonArray();
+        for (ToolCall c : calls) {
+            JsonObject fn = new JsonObject();
+            fn.addProperty("name", c.name);
+            fn.addProperty("arguments", c.arguments.toString());
+            JsonObject tc = new JsonObject();
+            tc.addProperty("id", c.id);
+            tc.addProperty("type", "function");
+            tc.add("function", fn);
+            toolCalls.add(tc);
+        }
+        JsonObject assistant = new JsonObject();
+        assistant.addProperty("role", "assistant");
+        if (text.isEmpty()) assistant.add("content", JsonNull.INSTANCE);
+        else assistant.addProperty("content", text);
+        assistant.add("tool_calls", toolCalls);
+
+        StringBuilder sb = new StringBuilder(messages.length() + 512)
+                .append(messages, 0, messages.length() - 1)
+                .append(',').append(assistant);
+        for (ToolCall c : calls) {
+            JsonObject result = new JsonObject();
+            result.addProperty("role", "tool");
+            result.addProperty("tool_call_id", c.id);
+            result.addProperty("content", listener.toolResult(c.index));
+            sb.append(',').append(result);
+        }
+        return sb.append(']').toString();
     }
 
     // =================== HTTP core ===================
 
-    private static String callChatCompletions(String apiKey, String model,
-                                              List<Map<String, Object>> messages,
-                                              double temperature) throws IOException {
-        JsonObject body = new JsonObject();
-        body.addProperty("model", model);
-        body.add("messages", toJsonMessages(messages));
-        body.addProperty("temperature", temperature);
+    /**
+     * Corpo do pedido: "messages" já serializado (pode vir do {@link PrefixCache}) e os
+     * restantes campos num JsonObject, juntos só na hora de enviar.
+     */
+    private static final class Body {
+        final JsonObject fields = new JsonObject();
+        final String messages;
+
+        Body(String model, String messages, double temperature) {
+            this.messages = messages;
+            fields.addProperty("model", model);
+            fields.addProperty("temperature", temperature);
+        }
+
+        String model() {
+            return fields.has("model") ? fields.get("model").getAsString() : "";
+        }
+
+        byte[] toJson() {
+            String rest = fields.toString(); // "{...}", nunca vazio (tem sempre o model)
+            StringBuilder sb = new StringBuilder(messages.length() + rest.length() + 16)
+                    .append("{\"messages\":").append(messages).append(',')
+                    .append(rest, 1, rest.length());
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Body newBody(String model, List<Map<String, Object>> messages, double temperature) {
+        return new Body(model, toJsonMessages(messages).toString(), temperature);
+    }
+
+    // Corpos abaixo disto não ganham nada com gzip
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final int ERROR_MAX_BYTES = 4096;
+    private static final long SHARED_MAX_WAIT_MS = 30_000;
+
+    // O endpoint recusou um corpo comprimido (e aceitou o mesmo sem compressão):
+    // não volta a tentar até reiniciar o IDE
+    private static volatile boolean gzipRejected;
+
+    /** Um pedido em curso: a resposta (já verificada) e o corpo já descomprimido. */
+    private static final class Exchange implements AutoCloseable {
+        final WireStats stats = new WireStats();
+        final long startNs = System.nanoTime();
+        String model;
+        Call call;
+        Response response;
+        BufferedSource body;
+
+        long elapsedMs() {
+            return (System.nanoTime() - startNs) / 1_000_000;
+        }
+
+        @Override
+        public void close() {
+            if (response != null) response.close();
+            stats.finish();
+        }
+    }
 
-        Request req = new Request.Builder()
+    private static Request newRequest(String apiKey, RequestBody body, boolean gzip) {
+        Request.Builder b = new Request.Builder()
                 .url(OPENAI_BASE + "/chat/completions")
                 .header("Authorization", "Bearer " + apiKey)
-                .post(RequestBody.create(JSON, body.toString()))
-                .build();
+                // pedido explícito: o OkHttp deixa de descomprimir sozinho e assim contamos os bytes no fio
+                .header("Accept-Encoding", "gzip")
+                .post(body);
+        if (gzip) b.header("Content-Encoding", "gzip");
+        return b.build();
+    }
+
+    private static RequestBody gzip(byte[] json) throws IOException {
+        Buffer buf = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(buf))) {
+            sink.write(json);
+        }
+        return RequestBody.create(buf.readByteString(), Net.JSON);
+    }
 
-        try (Response resp = HTTP.newCall(req).execute()) {
+    /**
+     * Envia o pedido e devolve a troca com a resposta já verificada. Com gzip ligado,
+     * se o endpoint recusar o corpo comprimido (415, ou 400 a dizer que não o conseguiu
+     * ler) repete uma vez sem compressão; se assim passar, o gzip fica desligado para o
+     * resto da sessão. Os outros 400 (contexto grande demais, modelo inválido…) não se repetem. Com a partilha entre IDEs ligada,
+     * passa antes pelo limite de pedidos comum (os pedidos com orçamento, como o inline,
+     * não esperam) e um 429 pausa todas as instâncias. Cada {@link Call} criado fica
+     * ligado a {@code cancellation}, se houver.
+     */
+    private static Exchange open(String apiKey, Body body, long timeoutMs, Cancellation cancellation) throws IOException {
+        SharedCoordinator shared = SharedCoordinator.ifEnabled();
+        // o RequestScheduler já tira o token quando dá lugar; aqui só os pedidos fora dele
+        if (shared != null && !RequestScheduler.takeSharedToken()
+                && !shared.acquire(apiKey, timeoutMs > 0 ? 0 : SHARED_MAX_WAIT_MS)) {
+            throw new IOException("Limite de pedidos partilhado entre IDEs atingido; tenta daqui a pouco");
+        }
+        Exchange ex = new Exchange();
+        ex.model = body.model();
+        byte[] json = body.toJson();
+        boolean gzip = !gzipRejected && json.length >= GZIP_MIN_BYTES
+                && ChatGptSettingsState.getInstance().isGzipRequests();
+        try {
+            Response resp = send(ex, apiKey, json, gzip, timeoutMs, cancellation);
+            if (gzip && gzipRefused(resp)) {
+                resp.close();
+                resp = send(ex, apiKey, json, false, timeoutMs, cancellation);
+                if (resp.isSuccessful()) {
+                    gzipRejected = true;
+                    Metrics.inc("http.gzip.rejected");
+                    LOG.info("O endpoint não aceita pedidos com gzip; a enviar sem compressão");
+                }
+            }
+            ex.response = resp;
+            if (resp.code() == 429 && shared != null) shared.backoff(apiKey, retryAfterMs(resp));
+            Source wire = ex.stats.countWire(resp.body().source());
+            ex.stats.gzipReceived = "gzip".equalsIgnoreCase(resp.header("Content-Encoding"));
+            ex.body = Okio.buffer(ex.stats.countJson(ex.stats.gzipReceived ? new GzipSource(wire) : wire));
             if (!resp.isSuccessful()) {
-                throw new IOException("HTTP " + resp.code() + ": " + (resp.body() != null ? resp.body().string() : "sem corpo"));
+                if (resp.code() == 429 || resp.code() >= 500) ModelRouter.failed(ex.model, ex.elapsedMs());
+                throw new IOException("HTTP " + resp.code() + ": " + errorText(ex.body));
             }
-            String s = resp.body().string();
-            JsonObject o = JsonParser.parseString(s).getAsJsonObject();
-            JsonArray choices = o.getAsJsonArray("choices");
-            if (choices == null || choices.size() == 0) return "";
-            JsonObject first = choices.get(0).getAsJsonObject();
-            JsonObject msg = first.getAsJsonObject("message");
-            return (msg != null && msg.has("content")) ? msg.get("content").getAsString() : "";
-        }
-    }
-
-    private static void streamChatCompletions(String apiKey, String model,
-                                              List<Map<String, Object>> messages,
-                                              double temperature,
-                                              Consumer<String> onDelta,
-                                              Runnable onDone) throws IOException {
-        JsonObject body = new JsonObject();
-        body.addProperty("model", model);
-        body.add("messages", toJsonMessages(messages));
-        body.addProperty("temperature", temperature);
-        body.addProperty("stream", true);
-
-        Request req = new Request.Builder()
-                .url(OPENAI_BASE + "/chat/completions")
-                .header("Authorization", "Bearer " + apiKey)
-                .post(RequestBody.create(JSON, body.toString()))
-                .build();
+            ex.stats.startReading();
+            return ex;
+        } catch (IOException | RuntimeException e) {
+            // rede/timeout sem orçamento próprio (os do inline são esperados, não contam)
+            if (ex.response == null && timeoutMs == 0) ModelRouter.failed(ex.model, ex.elapsedMs());
+            ex.close();
+            throw e;
+        }
+    }
+
+    private static Response send(Exchange ex, String apiKey, byte[] json, boolean gzip, long timeoutMs,
+                                 Cancellation cancellation) throws IOException {
+        RequestBody rb = gzip ? gzip(json) : RequestBody.create(json, Net.JSON);
+        ex.stats.sentJson = json.length;
+        ex.stats.sentWire = rb.contentLength();
+        ex.stats.gzipSent = gzip;
+        ex.call = Net.HTTP.newCall(newRequest(apiKey, rb, gzip));
+        if (timeoutMs > 0) ex.call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        if (cancellation != null) cancellation.attach(ex.call);
+        return ex.call.execute();
+    }
+
+    // Erros de quem não lê o corpo: "We could not parse the JSON body of your request", etc.
+    private static final Pattern UNREADABLE_BODY =
+            Pattern.compile("json body|could not (?:parse|decode)|invalid json|content-encoding|unsupported encoding|gzip");
+
+    private static boolean gzipRefused(Response resp) {
+        if (resp.code() == 415) return true;
+        if (resp.code() != 400) return false;
+        try {
+            Buffer peeked = new Buffer();
+            peeked.write(resp.peekBody(ERROR_MAX_BYTES).bytes());
+            String text;
+            if ("gzip".equalsIgnoreCase(resp.header("Content-Encoding"))) {
+                Buffer plain = new Buffer();
+                try (Source gz = new GzipSource(peeked)) {
+                    while (gz.read(plain, 8192) != -1) { /* até ao fim ou ao corte do peek */ }
+                } catch (IOException truncated) {
+                    // o peek pode cortar o gzip a meio; chega o que já saiu
+                }
+                text = plain.readUtf8();
+            } else {
+                text = peeked.readUtf8();
+            }
+            return UNREADABLE_BODY.matcher(text.toLowerCase(Locale.ROOT)).find();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // "retry-after-ms" (OpenAI) ou "Retry-After" em segundos; 0 se não vier
+    private static long retryAfterMs(Response resp) {
+        try {
+            String ms = resp.header("retry-after-ms");
+            if (ms != null) return (long) Double.parseDouble(ms.trim());
+            String s = resp.header("Retry-After");
+            if (s != null) return (long) (Double.parseDouble(s.trim()) * 1000);
+        } catch (NumberFormatException ignore) {
+            // Retry-After também pode ser uma data HTTP; fica o valor por omissão
+        }
+        return 0;
+    }
+
+    private static String errorText(BufferedSource body) {
+        try {
+            body.request(ERROR_MAX_BYTES);
+            long n = Math.min(ERROR_MAX_BYTES, body.getBuffer().size());
+            return n == 0 ? "sem corpo" : body.readUtf8(n);
+        } catch (IOException e) {
+            return "sem corpo";
+        }
+    }
+
+    private static String callChatCompletions(String apiKey, Body body) throws IOException {
+        try (Exchange ex = open(apiKey, body, 0, null)) {
+            String content = readContent(ex.body);
+            ex.stats.stopReading();
+            ModelRouter.observe(ex.model, -1, content.length(), ex.elapsedMs());
+            return content;
+        }
+    }
+
+    // Lê choices[0].message.content direto do corpo, sem passar a resposta toda para String
+    private static String readContent(BufferedSource src) throws IOException {
+        JsonReader r = new JsonReader(new InputStreamReader(src.inputStream(), StandardCharsets.UTF_8));
+        String content = "";
+        r.beginObject();
+        while (r.hasNext()) {
+            if (!"choices".equals(r.nextName())) {
+                r.skipValue();
+                continue;
+            }
+            r.beginArray();
+            if (r.hasNext()) content = firstChoiceContent(r);
+            while (r.hasNext()) r.skipValue();
+            r.endArray();
+        }
+        r.endObject();
+        return content;
+    }
 
-        Call call = HTTP.newCall(req);
-        Response resp = call.execute();
-        if (!resp.isSuccessful()) {
-            throw new IOException("HTTP " + resp.code() + ": " + (resp.body() != null ? resp.body().string() : "sem corpo"));
+    private static String firstChoiceContent(JsonReader r) throws IOException {
+        String content = "";
+        r.beginObject();
+        while (r.hasNext()) {
+            if (!"message".equals(r.nextName())) {
+                r.skipValue();
+                continue;
+            }
+            r.beginObject();
+            while (r.hasNext()) {
+                if ("content".equals(r.nextName()) && r.peek() == JsonToken.STRING) content = r.nextString();
+                else r.skipValue();
+            }
+            r.endObject();
         }
+        r.endObject();
+        return content;
+    }
+
+    private static boolean streamChatCompletions(String apiKey, Body body,
+                                                 Consumer<String> onDelta,
+                                                 Runnable onDone) throws IOException {
+        body.fields.addProperty("stream", true);
+        return readStream(apiKey, body, 0, onDelta, onDone, () -> false);
+    }
+
+    private static boolean readStream(String apiKey, Body body, long timeoutMs,
+                                      Consumer<String> onDelta, Runnable onDone,
+                                      BooleanSupplier cancelled) throws IOException {
+        return readEvents(apiKey, body, timeoutMs, delta -> {
+            String piece = content(delta);
+            if (piece != null) onDelta.accept(piece);
+        }, onDone, cancelled);
+    }
 
-        try (Response r = resp) {
-            BufferedSource src = r.body().source();
+    // Lê o SSE e entrega cada "delta" (choices[0].delta) já como objeto JSON.
+    // Devolve true só se o stream chegou ao [DONE] (não foi cortado nem cancelado).
+    private static boolean readEvents(String apiKey, Body body, long timeoutMs,
+                                      Consumer<JsonObject> onDelta, Runnable onDone,
+                                      BooleanSupplier cancelled) throws IOException {
+        Exchange ex = open(apiKey, body, timeoutMs, cancelled instanceof Cancellation c ? c : null);
+        try (ex) {
+            BufferedSource src = ex.body;
+            long parseNs = 0;
+            long firstMs = -1;
+            long chars = 0;
+            boolean complete = false;
             while (!src.exhausted()) {
+                if (cancelled.getAsBoolean()) {
+                    ex.call.cancel();
+                    break;
+                }
                 String line;
                 try {
                     line = src.readUtf8Line();
@@ -193,35 +720,84 @@ public final class OpenAiHttp {
 
                 String payload = line.substring(5).trim();
                 if (payload.isEmpty()) continue;
-                if ("[DONE]".equals(payload)) break;
+                if ("[DONE]".equals(payload)) {
+                    complete = true;
+                    break;
+                }
 
+                long t = System.nanoTime();
                 JsonObject chunk;
                 try {
                     chunk = JsonParser.parseString(payload).getAsJsonObject();
                 } catch (Exception ignore) {
                     continue;
+                } finally {
+                    parseNs += System.nanoTime() - t;
                 }
 
-                // choices é um Array; extraímos o delta.content
+                // choices é um Array; entregamos o delta do primeiro
                 JsonArray choices = chunk.getAsJsonArray("choices");
                 if (choices != null && choices.size() > 0) {
                     JsonObject choice0 = choices.get(0).getAsJsonObject();
                     JsonObject delta = choice0.getAsJsonObject("delta");
-                    if (delta != null && delta.has("content")) {
-                        String piece = delta.get("content").getAsString();
-                        if (piece != null && !piece.isEmpty()) {
-                            onDelta.accept(piece);
-                        }
+                    if (delta != null) {
+                        String piece = content(delta);
+                        if (piece != null) chars += piece.length();
+                        if (firstMs < 0 && (piece != null || delta.has("tool_calls"))) firstMs = ex.elapsedMs();
+                        onDelta.accept(delta);
                     }
                 }
             }
+            // no streaming conta só o parse dos eventos, não o trabalho dos callbacks
+            ex.stats.parseNs = parseNs;
+            if (complete && firstMs >= 0) ModelRouter.observe(ex.model, firstMs, chars, ex.elapsedMs());
+            return complete;
         } finally {
             if (onDone != null) onDone.run();
         }
     }
 
+    // delta.content, ou null (vem a JSON null quando o delta só traz tool_calls)
+    private static String content(JsonObject delta) {
+        JsonElement c = delta.get("content");
+        if (c == null || c.isJsonNull()) return null;
+        String piece = c.getAsString();
+        return piece.isEmpty() ? null : piece;
+    }
+
     // =================== DTO p/ histórico ===================
 
+    /**
+     * Vista só de leitura sobre um histórico, sem obrigar a copiar as mensagens para
+     * DTOs. {@link #length(int)} deve ser barato (o texto pode estar comprimido).
+     */
+    public interface HistoryView {
+        int size();
+        String role(int i);
+        int length(int i);
+        String text(int i);
+        long timestamp(int i);
+
+        /**
+         * Id estável da mensagem, se a vista vier da árvore da conversa; -1 se não houver.
+         * Mensagens com id nunca mudam de texto, o que permite guardar o pedido já serializado.
+         */
+        default long nodeId(int i) { return -1; }
+
+        HistoryView EMPTY = of(Collections.emptyList());
+
+        static HistoryView of(List<HistoryMsg> list) {
+            final List<HistoryMsg> l = list != null ? list : Collections.emptyList();
+            return new HistoryView() {
+                @Override public int size() { return l.size(); }
+                @Override public String role(int i) { return l.get(i).role; }
+                @Override public int length(int i) { return text(i).length(); }
+                @Override public String text(int i) { return l.get(i).text != null ? l.get(i).text : ""; }
+                @Override public long timestamp(int i) { return 0; }
+            };
+        }
+    }
+
     public static class HistoryMsg {
         public final String role;
         public final String text;
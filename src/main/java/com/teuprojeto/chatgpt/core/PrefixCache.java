@@ -0,0 +1,115 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Início já serializado dos pedidos com histórico: o array "messages" até à última
+ * mensagem do histórico, sem o prompt novo nem o "]" final. Só serve vistas com
+ * {@link OpenAiHttp.HistoryView#nodeId(int) ids} (a árvore da conversa), cujos nós
+ * nunca mudam: a chave é o system prompt mais o primeiro e o último nó enviados, o que
+ * numa árvore identifica o caminho todo.
+ * <p>
+ * Ao montar um pedido procura-se o maior prefixo em cache que seja antepassado do
+ * ramo (o último nó de cada turno fica guardado, por isso os pontos onde os ramos se
+ * separam costumam lá estar) e só se serializa o que falta. Mudar de ramo e voltar a
+ * enviar, editar uma pergunta antiga ou regenerar uma resposta reaproveita assim o
+ * prefixo comum. Quando a janela de contexto avança (sai a mensagem mais antiga) a
+ * chave muda e o prefixo é reconstruído.
+ */
+public final class PrefixCache {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private record Key(String system, long first, long last) {}
+
+    private static final Map<Key, String> CACHE = new LinkedHashMap<>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private PrefixCache() {}
+
+    /** "[{system},{history[first]},…,{history[n-1]}" — falta acrescentar o prompt e fechar. */
+    static String prefix(OpenAiHttp.HistoryView history, int first, String system) {
+        int n = history.size();
+        long t0 = System.nanoTime();
+        if (first >= n || history.nodeId(first) < 0) {
+            StringBuilder sb = start(system);
+            for (int i = first; i < n; i++) append(sb, history.role(i), history.text(i));
+            return sb.toString();
+        }
+
+        long firstId = history.nodeId(first);
+        String base = null;
+        int from = first;
+        synchronized (CACHE) {
+            for (int j = n - 1; j >= first && base == null; j--) {
+                base = CACHE.get(new Key(system, firstId, history.nodeId(j)));
+                if (base != null) from = j + 1;
+            }
+        }
+        if (base != null && from == n) {
+            Metrics.inc("prefix.hit");
+            Metrics.add("prefix.reused.chars", base.length());
+            return base;
+        }
+
+        StringBuilder sb;
+        if (base != null) {
+            Metrics.inc("prefix.extend");
+            Metrics.add("prefix.reused.chars", base.length());
+            sb = new StringBuilder(base.length() + 1024).append(base);
+        } else {
+            Metrics.inc("prefix.miss");
+            sb = start(system);
+        }
+        for (int i = from; i < n; i++) append(sb, history.role(i), history.text(i));
+        String prefix = sb.toString();
+        synchronized (CACHE) {
+            CACHE.put(new Key(system, firstId, history.nodeId(n - 1)), prefix);
+        }
+        Metrics.add("prefix.built.chars", prefix.length() - (base != null ? base.length() : 0));
+        Metrics.add("prefix.build.us", (System.nanoTime() - t0) / 1_000);
+        return prefix;
+    }
+
+    private static StringBuilder start(String system) {
+        StringBuilder sb = new StringBuilder(4096).append('[');
+        sb.append(message("system", system));
+        return sb;
+    }
+
+    static void append(StringBuilder sb, String role, String content) {
+        sb.append(',').append(message("assistant".equalsIgnoreCase(role) ? "assistant" : "user", content));
+    }
+
+    // mesmo formato que o JsonArray de mensagens produz
+    private static String message(String role, String content) {
+        JsonObject o = new JsonObject();
+        o.addProperty("role", role);
+        o.addProperty("content", content);
+        return o.toString();
+    }
+
+    /** Linha para o diálogo de estatísticas. */
+    public static String report() {
+        long hit = Metrics.count("prefix.hit"), extend = Metrics.count("prefix.extend"), miss = Metrics.count("prefix.miss");
+        if (hit + extend + miss == 0) return "Prefixos de pedido: (sem pedidos com histórico ainda)";
+        int entries;
+        long chars = 0;
+        synchronized (CACHE) {
+            entries = CACHE.size();
+            for (String p : CACHE.values()) chars += p.length();
+        }
+        long built = extend + miss;
+        return String.format("Prefixos de pedido: %d reutilizados, %d estendidos, %d de raiz; "
+                        + "%d KB reaproveitados, %d KB serializados (média %d µs); em cache %d (~%d KB)",
+                hit, extend, miss, Metrics.count("prefix.reused.chars") / 1024, Metrics.count("prefix.built.chars") / 1024,
+                built == 0 ? 0 : Metrics.count("prefix.build.us") / built, entries, chars * 2 / 1024);
+    }
+}
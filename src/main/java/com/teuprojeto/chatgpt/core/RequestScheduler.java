@@ -0,0 +1,260 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fila única para todos os pedidos à API, com três faixas de prioridade. No máximo
+ * {@link #MAX_IN_FLIGHT} pedidos correm ao mesmo tempo; editor e bulk juntos nunca
+ * ocupam o último lugar, que fica reservado a um pedido interativo, e o bulk sozinho
+ * não passa de {@link #MAX_BULK}. Quando vaga um lugar:
+ * <ul>
+ *   <li>um pedido interativo à espera passa à frente de tudo o que está na fila;</li>
+ *   <li>senão editor e bulk repartem por deficit round-robin (pesos 3:1), para o bulk
+ *   avançar sempre, devagar.</li>
+ * </ul>
+ * Só a espera na fila é preemptiva: um pedido que já começou corre até ao fim.
+ * O pedido corre na thread de quem chama, que fica bloqueada enquanto espera a vez.
+ * Com a partilha entre IDEs ligada, o pedido só tira o token do limite comum
+ * ({@link SharedCoordinator}) depois de ter lugar: um pedido cancelado na fila, ou que
+ * fica muito tempo atrás dos interativos, não gasta token.
+ */
+public final class RequestScheduler {
+
+    public enum Lane {
+        INTERACTIVE("interativo", 0),  // tool window, "Ask": passa sempre à frente
+        EDITOR("editor", 3),           // ações sobre a seleção, inline
+        BULK("bulk", 1);               // map-reduce e afins
+
+        final String label;
+        final int weight;
+
+        Lane(String label, int weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+    }
+
+    public interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    public interface IoRun {
+        void run() throws IOException;
+    }
+
+    static final int MAX_IN_FLIGHT = 4;
+    static final int MAX_BULK = 2;
+    private static final long POLL_MS = 100;
+    private static final Lane[] FAIR = {Lane.EDITOR, Lane.BULK};
+    private static final long SHARED_MAX_WAIT_MS = 30_000;
+
+    // O pedido em curso nesta thread já tirou o token partilhado (OpenAiHttp não tira outro)
+    private static final ThreadLocal<Boolean> SHARED_TOKEN = new ThreadLocal<>();
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Condition CHANGED = LOCK.newCondition();
+    private static final Map<Lane, Deque<Waiter>> QUEUES = new EnumMap<>(Lane.class);
+    private static final Map<Lane, Integer> DEFICIT = new EnumMap<>(Lane.class);
+    private static final Map<Lane, Long> MAX_WAIT_MS = new EnumMap<>(Lane.class);
+    private static int cursor;
+    private static int inFlight;
+    private static int bulkInFlight;
+
+    static {
+        for (Lane l : Lane.values()) {
+            QUEUES.put(l, new ArrayDeque<>());
+            DEFICIT.put(l, 0);
+            MAX_WAIT_MS.put(l, 0L);
+        }
+    }
+
+    private static final class Waiter {
+        final Lane lane;
+        final long enqueuedNs = System.nanoTime();
+        boolean granted;
+
+        Waiter(Lane lane) {
+            this.lane = lane;
+        }
+    }
+
+    private RequestScheduler() {}
+
+    // =================== API ===================
+
+    /**
+     * Espera pela vez na faixa {@code lane} e corre {@code work}. Se {@code cancelled}
+     * ficar true ainda na fila, sai com {@link CancellationException} sem ir à rede.
+     */
+    public static <T> T call(Lane lane, BooleanSupplier cancelled, IoCall<T> work) throws IOException {
+        return call(lane, cancelled, SHARED_MAX_WAIT_MS, work);
+    }
+
+    /** Como {@link #call(Lane, BooleanSupplier, IoCall)}, esperando no máximo {@code sharedWaitMs} pelo limite partilhado. */
+    public static <T> T call(Lane lane, BooleanSupplier cancelled, long sharedWaitMs, IoCall<T> work) throws IOException {
+        Waiter w = enter(lane, cancelled);
+        try {
+            SHARED_TOKEN.set(acquireShared(sharedWaitMs));
+            return work.call();
+        } finally {
+            SHARED_TOKEN.remove();
+            leave(w);
+        }
+    }
+
+    public static void run(Lane lane, BooleanSupplier cancelled, IoRun work) throws IOException {
+        run(lane, cancelled, SHARED_MAX_WAIT_MS, work);
+    }
+
+    public static void run(Lane lane, BooleanSupplier cancelled, long sharedWaitMs, IoRun work) throws IOException {
+        call(lane, cancelled, sharedWaitMs, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Chamado por {@link OpenAiHttp} antes de cada pedido HTTP: true se o pedido em curso
+     * nesta thread já tirou o token partilhado (só o primeiro pedido dele o aproveita).
+     */
+    static boolean takeSharedToken() {
+        if (!Boolean.TRUE.equals(SHARED_TOKEN.get())) return false;
+        SHARED_TOKEN.set(false);
+        return true;
+    }
+
+    // =================== Limite partilhado ===================
+
+    // true se tirou um token; sem partilha não há nada a tirar
+    private static boolean acquireShared(long maxWaitMs) throws IOException {
+        SharedCoordinator shared = SharedCoordinator.ifEnabled();
+        if (shared == null) return false;
+        if (!shared.acquire(ChatGptSettingsState.getInstance().getApiKey(), maxWaitMs)) {
+            throw new IOException("Limite de pedidos partilhado entre IDEs atingido; tenta daqui a pouco");
+        }
+        return true;
+    }
+
+    // =================== Fila ===================
+
+    private static Waiter enter(Lane lane, BooleanSupplier cancelled) {
+        Waiter w = new Waiter(lane);
+        LOCK.lock();
+        try {
+            QUEUES.get(lane).add(w);
+            dispatch();
+            while (!w.granted) {
+                if (cancelled != null && cancelled.getAsBoolean()) {
+                    QUEUES.get(lane).remove(w);
+                    Metrics.inc("sched.cancel." + lane.label);
+                    throw new CancellationException();
+                }
+                try {
+                    CHANGED.await(POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    QUEUES.get(lane).remove(w);
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+            }
+            return w;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static void leave(Waiter w) {
+        LOCK.lock();
+        try {
+            inFlight--;
+            if (w.lane == Lane.BULK) bulkInFlight--;
+            dispatch();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    // Enche os lugares livres; chamado com o lock
+    private static void dispatch() {
+        boolean any = false;
+        while (inFlight < MAX_IN_FLIGHT) {
+            Lane lane = pick();
+            if (lane == null) break;
+            Waiter w = QUEUES.get(lane).poll();
+            w.granted = true;
+            inFlight++;
+            if (lane == Lane.BULK) bulkInFlight++;
+            any = true;
+
+            long waited = (System.nanoTime() - w.enqueuedNs) / 1_000_000;
+            Metrics.record("sched.wait." + lane.label, waited);
+            Metrics.inc("sched.granted." + lane.label);
+            Metrics.add("sched.wait.ms." + lane.label, waited);
+            MAX_WAIT_MS.merge(lane, waited, Math::max);
+            if (lane == Lane.INTERACTIVE && (!QUEUES.get(Lane.EDITOR).isEmpty() || !QUEUES.get(Lane.BULK).isEmpty())) {
+                Metrics.inc("sched.preempt");
+            }
+        }
+        if (any) CHANGED.signalAll();
+    }
+
+    // Interativo primeiro; depois deficit round-robin entre editor e bulk
+    private static Lane pick() {
+        if (!QUEUES.get(Lane.INTERACTIVE).isEmpty()) return Lane.INTERACTIVE;
+        for (int visits = 0; visits <= 2 * FAIR.length; visits++) {
+            Lane lane = FAIR[cursor];
+            if (eligible(lane)) {
+                int d = DEFICIT.get(lane);
+                if (d >= 1) {
+                    DEFICIT.put(lane, d - 1);
+                    return lane;
+                }
+            } else {
+                DEFICIT.put(lane, 0); // faixa vazia não acumula crédito
+            }
+            // esgotou a vez desta faixa: passa à seguinte e dá-lhe o seu quantum
+            cursor = (cursor + 1) % FAIR.length;
+            Lane next = FAIR[cursor];
+            if (eligible(next)) DEFICIT.merge(next, next.weight, Integer::sum);
+        }
+        return null;
+    }
+
+    // Só chamado para editor e bulk: o último lugar fica para um interativo
+    private static boolean eligible(Lane lane) {
+        if (QUEUES.get(lane).isEmpty() || inFlight >= MAX_IN_FLIGHT - 1) return false;
+        return lane != Lane.BULK || bulkInFlight < MAX_BULK;
+    }
+
+    // =================== Relatório ===================
+
+    /** Espera na fila por faixa, para o diálogo de estatísticas. */
+    public static String report() {
+        StringBuilder sb = new StringBuilder("Fila de pedidos (máx. " + MAX_IN_FLIGHT + " em curso, 1 reservado a interativos, bulk ≤ "
+                + MAX_BULK + "):");
+        LOCK.lock();
+        try {
+            for (Lane l : Lane.values()) {
+                long n = Metrics.count("sched.granted." + l.label);
+                sb.append(String.format("%n  %-10s %5d pedidos, espera média %d ms, máx. %d ms, %d na fila agora",
+                        l.label, n, n == 0 ? 0 : Metrics.count("sched.wait.ms." + l.label) / n,
+                        MAX_WAIT_MS.get(l), QUEUES.get(l).size()));
+            }
+            sb.append(String.format("%n  interativos que passaram à frente da fila: %d", Metrics.count("sched.preempt")));
+        } finally {
+            LOCK.unlock();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.util.function.Consumer;
+
+/**
+ * Parser incremental de edições no formato SEARCH/REPLACE:
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; SEARCH
+ * texto original
+ * =======
+ * texto novo
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt; REPLACE
+ * </pre>
+ * Recebe os deltas do streaming tal como chegam e emite cada edição logo que o
+ * marcador final é lido; só os caracteres novos são examinados.
+ */
+public final class SearchReplaceParser {
+
+    public static final String SEARCH = "<<<<<<< SEARCH";
+    public static final String DIVIDER = "=======";
+    public static final String REPLACE = ">>>>>>> REPLACE";
+
+    public static final class Edit {
+        public final String search;
+        public final String replace;
+
+        public Edit(String search, String replace) {
+            this.search = search;
+            this.replace = replace;
+        }
+    }
+
+    private enum State { OUTSIDE, IN_SEARCH, IN_REPLACE }
+
+    private final Consumer<Edit> onEdit;
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder search = new StringBuilder();
+    private final StringBuilder replace = new StringBuilder();
+    private State state = State.OUTSIDE;
+    private int edits;
+
+    public SearchReplaceParser(Consumer<Edit> onEdit) {
+        this.onEdit = onEdit;
+    }
+
+    public void feed(CharSequence delta) {
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            if (c == '\n') {
+                onLine(line.toString());
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    /** Fim do stream: processa a última linha se não terminou com '\n'. */
+    public void finish() {
+        if (line.length() > 0) {
+            onLine(line.toString());
+            line.setLength(0);
+        }
+    }
+
+    public int getEditCount() {
+        return edits;
+    }
+
+    /** Há um bloco começado mas não fechado? */
+    public boolean isIncomplete() {
+        return state != State.OUTSIDE;
+    }
+
+    private void onLine(String l) {
+        String t = l.trim();
+        switch (state) {
+            case OUTSIDE -> {
+                if (t.equals(SEARCH)) {
+                    search.setLength(0);
+                    replace.setLength(0);
+                    state = State.IN_SEARCH;
+                }
+            }
+            case IN_SEARCH -> {
+                if (t.equals(DIVIDER)) state = State.IN_REPLACE;
+                else search.append(l).append('\n');
+            }
+            case IN_REPLACE -> {
+                if (t.equals(REPLACE)) {
+                    state = State.OUTSIDE;
+                    edits++;
+                    onEdit.accept(new Edit(search.toString(), replace.toString()));
+                } else {
+                    replace.append(l).append('\n');
+                }
+            }
+        }
+    }
+
+    // =================== Aplicar ===================
+
+    /**
+     * Aplica uma edição a {@code text}. Tenta primeiro a correspondência exata e depois
+     * linha a linha ignorando espaços nas pontas. Devolve {@code null} se não encontrar.
+     */
+    public static String apply(String text, Edit e) {
+        if (e.search.isEmpty()) return null;
+        int at = indexAtLineStart(text, e.search);
+        if (at >= 0) return text.substring(0, at) + e.replace + text.substring(at + e.search.length());
+
+        // sem '\n' final (ex.: seleção que termina a meio da linha)
+        String s = e.search.endsWith("\n") ? e.search.substring(0, e.search.length() - 1) : e.search;
+        at = indexAtLineStart(text, s);
+        if (at >= 0) {
+            String r = e.replace.endsWith("\n") ? e.replace.substring(0, e.replace.length() - 1) : e.replace;
+            return text.substring(0, at) + r + text.substring(at + s.length());
+        }
+
+        String[] lines = text.split("\n", -1);
+        String[] want = s.split("\n", -1);
+        outer:
+        for (int i = 0; i + want.length <= lines.length; i++) {
+            for (int k = 0; k < want.length; k++) {
+                if (!lines[i + k].trim().equals(want[k].trim())) continue outer;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int k = 0; k < i; k++) sb.append(lines[k]).append('\n');
+            sb.append(e.replace);
+            if (!e.replace.endsWith("\n") && i + want.length < lines.length) sb.append('\n');
+            for (int k = i + want.length; k < lines.length; k++) {
+                sb.append(lines[k]);
+                if (k < lines.length - 1) sb.append('\n');
+            }
+            return sb.toString();
+        }
+        return null;
+    }
+
+    // só aceita ocorrências no início de uma linha (evita casar "  x" dentro de "    x")
+    private static int indexAtLineStart(String text, String s) {
+        for (int at = text.indexOf(s); at >= 0; at = text.indexOf(s, at + 1)) {
+            if (at == 0 || text.charAt(at - 1) == '\n') return at;
+        }
+        return -1;
+    }
+}
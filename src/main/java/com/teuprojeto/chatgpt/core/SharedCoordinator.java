@@ -0,0 +1,410 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Estado partilhado entre as instâncias do IDE na mesma máquina, num ficheiro mapeado
+ * em memória ({@code ~/.chatgpt-intellij/shared.bin}) protegido por um file lock:
+ * <ul>
+ *   <li>um token bucket por API key (pedidos por minuto), mais uma pausa comum
+ *   quando a API responde 429;</li>
+ *   <li>uma cache exata (modelo + system prompt + temperatura + prompt → resposta), num
+ *   anel de dados com uma tabela de slots à frente.</li>
+ * </ul>
+ * O ficheiro fica fora das pastas de config/system do IDE porque cada instância tranca as
+ * suas, e aí não haveria nada para partilhar. Como guarda respostas em texto, a pasta e o
+ * ficheiro só são acessíveis ao dono, as respostas expiram ao fim de {@link #CACHE_TTL_MS}
+ * e o "Limpar" da conversa apaga a cache ({@link #clearCache()}).
+ * <p>
+ * Com uma só instância funciona igual (é a única a usar o ficheiro). Se o ficheiro não
+ * puder ser aberto ou trancado, desliga-se e tudo continua como sem partilha.
+ */
+@Service(Service.Level.APP)
+public final class SharedCoordinator implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(SharedCoordinator.class);
+
+    private static final int MAGIC = 0x43475053; // "CGPS"
+    private static final int VERSION = 2;
+    private static final int FILE_SIZE = 4 << 20;
+
+    // Cabeçalho: magic, versão, posição de escrita do anel; depois os buckets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_WRITE_POS = 8;
+    private static final int BUCKETS_AT = 64;
+    private static final int BUCKETS = 8;
+    private static final int BUCKET_SIZE = 32;   // keyHash, tokens (double), últimoRefill, pausaAté
+    private static final int HEADER_SIZE = 4096;
+
+    // Slots da cache: chave (16 bytes), posição no anel + 1 (0 = vazio), tamanho, minuto em que foi gravada
+    private static final int SLOTS = 8192;
+    private static final int SLOT_SIZE = 32;
+    private static final int PROBE = 8;
+    private static final int SLOTS_AT = HEADER_SIZE;
+    private static final int DATA_AT = SLOTS_AT + SLOTS * SLOT_SIZE;
+    private static final int DATA_SIZE = FILE_SIZE - DATA_AT;
+    private static final int RECORD_HEADER = 20;  // chave + tamanho
+    private static final int MAX_ANSWER_BYTES = 64 * 1024;
+    private static final long CACHE_TTL_MS = 24 * 60 * 60 * 1000L;
+
+    private static final long MAX_WAIT_MS = 30_000;
+    private static final long DEFAULT_BACKOFF_MS = 2_000;
+
+    private final Path file = Paths.get(System.getProperty("user.home"), ".chatgpt-intellij", "shared.bin");
+
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private boolean opened;
+    private volatile boolean broken;
+
+    public static SharedCoordinator getInstance() {
+        return ApplicationManager.getApplication().getService(SharedCoordinator.class);
+    }
+
+    /** A instância, se a partilha estiver ligada nas definições e o ficheiro utilizável. */
+    public static @Nullable SharedCoordinator ifEnabled() {
+        if (!ChatGptSettingsState.getInstance().isShareAcrossInstances()) return null;
+        SharedCoordinator c = getInstance();
+        return c.broken ? null : c;
+    }
+
+    // =================== Rate limit ===================
+
+    /**
+     * Tira um pedido do bucket da {@code apiKey}, esperando até {@code maxWaitMs} (0 = não
+     * espera) que haja um. Devolve false se o tempo acabar. Se o ficheiro falhar, deixa passar.
+     */
+    public boolean acquire(String apiKey, long maxWaitMs) {
+        long keyHash = keyHash(apiKey);
+        double perMinute = Math.max(1, ChatGptSettingsState.getInstance().getSharedRequestsPerMinute());
+        long deadline = System.currentTimeMillis() + Math.min(maxWaitMs, MAX_WAIT_MS);
+        long t0 = System.nanoTime();
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wait;
+            synchronized (this) {
+                FileLock lock = lock();
+                if (lock == null) return true;
+                try {
+                    wait = take(bucket(keyHash, now), perMinute, now);
+                } finally {
+                    release(lock);
+                }
+            }
+            if (wait == 0) {
+                long waited = (System.nanoTime() - t0) / 1_000_000;
+                if (waited > 0) Metrics.record("shared.wait.ms", waited);
+                return true;
+            }
+            if (now + wait > deadline) {
+                Metrics.inc("shared.throttled");
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(wait, 250));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /** A API respondeu 429: todas as instâncias com esta key esperam {@code retryAfterMs} (ou 2 s). */
+    public void backoff(String apiKey, long retryAfterMs) {
+        long now = System.currentTimeMillis();
+        long until = now + (retryAfterMs > 0 ? retryAfterMs : DEFAULT_BACKOFF_MS);
+        Metrics.inc("shared.backoff");
+        synchronized (this) {
+            FileLock lock = lock();
+            if (lock == null) return;
+            try {
+                int b = bucket(keyHash(apiKey), now);
+                map.putLong(b + 24, Math.max(map.getLong(b + 24), until));
+                map.putDouble(b + 8, 0);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    // 0 se tirou um pedido; senão quantos ms faltam para haver um
+    private long take(int b, double perMinute, long now) {
+        long pausedUntil = map.getLong(b + 24);
+        if (pausedUntil > now) return pausedUntil - now;
+        double tokens = map.getDouble(b + 8);
+        long last = map.getLong(b + 16);
+        tokens = Math.min(perMinute, tokens + Math.max(0, now - last) * perMinute / 60_000.0);
+        map.putLong(b + 16, now);
+        if (tokens >= 1) {
+            map.putDouble(b + 8, tokens - 1);
+            return 0;
+        }
+        map.putDouble(b + 8, tokens);
+        return Math.max(1, (long) Math.ceil((1 - tokens) * 60_000.0 / perMinute));
+    }
+
+    // Bucket desta key; uma key nova começa cheia e fica com o slot menos usado recentemente
+    private int bucket(long keyHash, long now) {
+        int oldest = BUCKETS_AT;
+        for (int i = 0; i < BUCKETS; i++) {
+            int b = BUCKETS_AT + i * BUCKET_SIZE;
+            if (map.getLong(b) == keyHash) return b;
+            if (map.getLong(b + 16) < map.getLong(oldest + 16)) oldest = b;
+        }
+        map.putLong(oldest, keyHash);
+        map.putDouble(oldest + 8, ChatGptSettingsState.getInstance().getSharedRequestsPerMinute());
+        map.putLong(oldest + 16, now);
+        map.putLong(oldest + 24, 0);
+        return oldest;
+    }
+
+    // =================== Cache exata ===================
+
+    public @Nullable String lookup(String model, String systemPrompt, double temperature, String prompt) {
+        byte[] key = cacheKey(model, systemPrompt, temperature, prompt);
+        String answer = null;
+        synchronized (this) {
+            FileLock lock = lock();
+            if (lock == null) return null;
+            try {
+                // findSlot já ignora slots expirados ou passados pelo anel; a escrita reaproveita-os
+                int s = findSlot(key, false);
+                if (s >= 0) answer = readRecord(key, map.getLong(s + 16) - 1, map.getInt(s + 24));
+            } finally {
+                release(lock);
+            }
+        }
+        Metrics.inc(answer != null ? "shared.cache.hit" : "shared.cache.miss");
+        return answer;
+    }
+
+    public void store(String model, String systemPrompt, double temperature, String prompt, String answer) {
+        if (answer == null || answer.isBlank()) return;
+        byte[] bytes = answer.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ANSWER_BYTES) return;
+        byte[] key = cacheKey(model, systemPrompt, temperature, prompt);
+        synchronized (this) {
+            FileLock lock = lock();
+            if (lock == null) return;
+            try {
+                long pos = map.getLong(H_WRITE_POS);
+                ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER + bytes.length);
+                rec.put(key).putInt(bytes.length).put(bytes);
+                writeRing(pos, rec.array());
+                map.putLong(H_WRITE_POS, pos + rec.capacity());
+
+                int s = findSlot(key, true);
+                map.put(s, key, 0, 16);
+                map.putLong(s + 16, pos + 1);
+                map.putInt(s + 24, bytes.length);
+                map.putInt(s + 28, (int) (System.currentTimeMillis() / 60_000));
+            } finally {
+                release(lock);
+            }
+        }
+        Metrics.inc("shared.cache.store");
+    }
+
+    /**
+     * Apaga as respostas guardadas (slots e anel) para todas as instâncias; o rate limit
+     * fica. Também com a partilha desligada, se o ficheiro ficou de quando estava ligada.
+     */
+    public void clearCache() {
+        synchronized (this) {
+            if (!opened && !Files.exists(file)) return;
+            FileLock lock = lock();
+            if (lock == null) return;
+            try {
+                zero(SLOTS_AT, FILE_SIZE);
+                map.putLong(H_WRITE_POS, 0);
+                map.force();
+            } finally {
+                release(lock);
+            }
+        }
+        Metrics.inc("shared.cache.cleared");
+    }
+
+    private boolean expired(int slot, long now) {
+        return now - map.getInt(slot + 28) * 60_000L > CACHE_TTL_MS;
+    }
+
+    // Slot com a chave; para escrever, o primeiro vazio/gasto ou o mais antigo do grupo
+    private int findSlot(byte[] key, boolean forWrite) {
+        long k0 = ByteBuffer.wrap(key).getLong();
+        int home = (int) (k0 & (SLOTS - 1));
+        int free = -1, oldest = -1;
+        long writePos = map.getLong(H_WRITE_POS);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < PROBE; i++) {
+            int s = SLOTS_AT + ((home + i) & (SLOTS - 1)) * SLOT_SIZE;
+            long pos = map.getLong(s + 16);
+            boolean live = pos != 0 && writePos - (pos - 1) <= DATA_SIZE && !expired(s, now);
+            if (live && sameKey(s, key)) return s;
+            if (!live && free < 0) free = s;
+            if (live && (oldest < 0 || pos < map.getLong(oldest + 16))) oldest = s;
+        }
+        if (!forWrite) return -1;
+        return free >= 0 ? free : oldest;
+    }
+
+    private boolean sameKey(int at, byte[] key) {
+        for (int i = 0; i < 16; i++) if (map.get(at + i) != key[i]) return false;
+        return true;
+    }
+
+    private @Nullable String readRecord(byte[] key, long pos, int len) {
+        if (len < 0 || len > MAX_ANSWER_BYTES) return null;
+        byte[] rec = new byte[RECORD_HEADER + len];
+        readRing(pos, rec);
+        ByteBuffer bb = ByteBuffer.wrap(rec);
+        for (byte b : key) if (bb.get() != b) return null; // slot antigo para um registo já reescrito
+        if (bb.getInt() != len) return null;
+        return new String(rec, RECORD_HEADER, len, StandardCharsets.UTF_8);
+    }
+
+    private void writeRing(long pos, byte[] src) {
+        for (int i = 0; i < src.length; ) {
+            int at = (int) ((pos + i) % DATA_SIZE);
+            int n = Math.min(src.length - i, DATA_SIZE - at);
+            map.put(DATA_AT + at, src, i, n);
+            i += n;
+        }
+    }
+
+    private void readRing(long pos, byte[] dst) {
+        for (int i = 0; i < dst.length; ) {
+            int at = (int) ((pos + i) % DATA_SIZE);
+            int n = Math.min(dst.length - i, DATA_SIZE - at);
+            map.get(DATA_AT + at, dst, i, n);
+            i += n;
+        }
+    }
+
+    // =================== Ficheiro ===================
+
+    // Tranca o ficheiro (entre processos; dentro deste o synchronized do chamador); null = partilha desligada
+    private @Nullable FileLock lock() {
+        if (broken) return null;
+        try {
+            if (!opened) open();
+            FileLock lock = channel.lock();
+            if (map.getInt(H_MAGIC) != MAGIC || map.getInt(H_VERSION) != VERSION) reset();
+            return lock;
+        } catch (IOException | RuntimeException e) {
+            disable(e);
+            return null;
+        }
+    }
+
+    private void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    private void open() throws IOException {
+        opened = true;
+        Path dir = file.getParent();
+        boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------")); // pastas de versões antigas
+        } else {
+            Files.createDirectories(dir); // Windows: a pasta do utilizador já só é dele
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (posix) Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE); // aumenta o ficheiro se preciso
+    }
+
+    // Ficheiro novo (ou de outra versão): zera tudo, anel incluído (pode ter respostas de uma versão antiga)
+    private void reset() {
+        zero(0, FILE_SIZE);
+        map.putInt(H_MAGIC, MAGIC);
+        map.putInt(H_VERSION, VERSION);
+        map.putLong(H_WRITE_POS, 0);
+    }
+
+    private void zero(int from, int to) {
+        byte[] zeros = new byte[64 * 1024];
+        for (int at = from; at < to; at += zeros.length) map.put(at, zeros, 0, Math.min(zeros.length, to - at));
+    }
+
+    private void disable(Exception e) {
+        if (broken) return;
+        broken = true;
+        LOG.warn("Partilha entre IDEs indisponível (" + file + "); a continuar sem ela", e);
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignore) {
+        }
+        channel = null;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        closeChannel();
+        broken = true;
+    }
+
+    // =================== Chaves ===================
+
+    private static byte[] cacheKey(String model, String systemPrompt, double temperature, String prompt) {
+        byte[] d = sha256(model + '\0' + systemPrompt + '\0' + temperature + '\0' + prompt);
+        byte[] key = new byte[16];
+        System.arraycopy(d, 0, key, 0, 16);
+        return key;
+    }
+
+    // só um hash da key vai para o disco; 0 fica reservado para "bucket vazio"
+    private static long keyHash(String apiKey) {
+        long h = ByteBuffer.wrap(sha256("bucket\0" + apiKey)).getLong();
+        return h == 0 ? 1 : h;
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // =================== Relatório ===================
+
+    /** Linha para o diálogo de estatísticas. */
+    public static String report() {
+        if (!ChatGptSettingsState.getInstance().isShareAcrossInstances()) return "Partilha entre IDEs: desligada";
+        if (getInstance().broken) return "Partilha entre IDEs: indisponível (ver idea.log)";
+        long hits = Metrics.count("shared.cache.hit"), misses = Metrics.count("shared.cache.miss");
+        return String.format("Partilha entre IDEs: cache %d hits / %d misses, %d pedidos recusados pelo limite, %d pausas por 429",
+                hits, misses, Metrics.count("shared.throttled"), Metrics.count("shared.backoff"));
+    }
+}
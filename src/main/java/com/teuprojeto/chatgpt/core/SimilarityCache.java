@@ -0,0 +1,214 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache de respostas por semelhança, para <b>sugerir</b> uma resposta anterior (a tool
+ * window pergunta antes de a usar; nunca substitui um pedido sozinha). Um prompt só
+ * conta como parecido se o modelo, o system prompt, a temperatura e o texto fora dos
+ * blocos ``` forem iguais; a semelhança MinHash acima do limiar só tolera diferenças
+ * no código. Assim "troca &lt; por &gt;" e "troca &gt; por &lt;" sobre o mesmo código não se
+ * confundem. O índice LSH vive em memória (LRU limitado) e é gravado comprimido ao fechar o IDE.
+ */
+@Service(Service.Level.APP)
+public final class SimilarityCache implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(SimilarityCache.class);
+
+    private static final int MAX_ENTRIES = 512;
+    private static final int FILE_VERSION = 3;
+
+    private final Path file = Paths.get(PathManager.getSystemPath(), "chatgpt", "similarity.bin");
+
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Set<Integer>> buckets = new HashMap<>();
+    private int nextId;
+    private boolean loaded;
+    private boolean dirty;
+
+    private long hits;
+    private long misses;
+
+    public static SimilarityCache getInstance() {
+        return ApplicationManager.getApplication().getService(SimilarityCache.class);
+    }
+
+    // =================== API ===================
+
+    /** Resposta guardada para um prompt quase igual, ou {@code null}. */
+    public synchronized String lookup(String model, String systemPrompt, double temperature, String prompt, double threshold) {
+        if (threshold <= 0 || prompt == null || prompt.isBlank()) return null;
+        ensureLoaded();
+        String scope = scope(model, systemPrompt, temperature);
+        String instruction = instruction(prompt);
+        int[] sig = MinHash.signature(prompt);
+
+        Entry best = null;
+        double bestSim = threshold;
+        Set<Integer> seen = new HashSet<>();
+        for (int b = 0; b < MinHash.BANDS; b++) {
+            Set<Integer> ids = buckets.get(MinHash.bandKey(sig, b));
+            if (ids == null) continue;
+            for (Integer id : ids) {
+                if (!seen.add(id)) continue;
+                Entry e = entries.get(id);
+                if (e == null || !e.scope.equals(scope) || !e.instruction.equals(instruction)) continue;
+                double sim = MinHash.similarity(sig, e.sig);
+                if (sim >= bestSim) {
+                    best = e;
+                    bestSim = sim;
+                }
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entries.get(best.id); // toca no LRU
+        return best.answer;
+    }
+
+    public synchronized void store(String model, String systemPrompt, double temperature, String prompt, String answer) {
+        if (prompt == null || prompt.isBlank() || answer == null || answer.isBlank()) return;
+        ensureLoaded();
+        put(new Entry(nextId++, scope(model, systemPrompt, temperature), instruction(prompt),
+                MinHash.signature(prompt), answer));
+        dirty = true;
+    }
+
+    /** Texto do prompt fora dos blocos ``` (um bloco por fechar vai até ao fim), com os espaços normalizados. */
+    static String instruction(String prompt) {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        while (i < prompt.length()) {
+            int open = prompt.indexOf("```", i);
+            if (open < 0) {
+                out.append(prompt, i, prompt.length());
+                break;
+            }
+            out.append(prompt, i, open).append(" ``` ");
+            int close = prompt.indexOf("```", open + 3);
+            i = close < 0 ? prompt.length() : close + 3;
+        }
+        return out.toString().trim().replaceAll("\\s+", " ");
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+
+    // =================== Índice ===================
+
+    private void put(Entry e) {
+        entries.put(e.id, e);
+        for (int b = 0; b < MinHash.BANDS; b++) {
+            buckets.computeIfAbsent(MinHash.bandKey(e.sig, b), k -> new HashSet<>()).add(e.id);
+        }
+        if (entries.size() > MAX_ENTRIES) {
+            Iterator<Entry> it = entries.values().iterator();
+            Entry eldest = it.next();
+            it.remove();
+            for (int b = 0; b < MinHash.BANDS; b++) {
+                long key = MinHash.bandKey(eldest.sig, b);
+                Set<Integer> ids = buckets.get(key);
+                if (ids != null && ids.remove(eldest.id) && ids.isEmpty()) buckets.remove(key);
+            }
+        }
+    }
+
+    private static String scope(String model, String systemPrompt, double temperature) {
+        return model + '\0' + systemPrompt + '\0' + temperature;
+    }
+
+    // =================== Persistência ===================
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FILE_VERSION) return;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String scope = readString(in);
+                String instruction = readString(in);
+                int[] sig = new int[MinHash.NUM_HASHES];
+                for (int k = 0; k < sig.length; k++) sig[k] = in.readInt();
+                put(new Entry(nextId++, scope, instruction, sig, readString(in)));
+            }
+        } catch (IOException e) {
+            LOG.warn("Cache de semelhança ilegível; a começar vazia", e);
+        }
+    }
+
+    private synchronized void save() {
+        if (!dirty) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                // do mais antigo para o mais recente, para a ordem LRU sobreviver ao reload
+                for (Entry e : entries.values()) {
+                    writeString(out, e.scope);
+                    writeString(out, e.instruction);
+                    for (int v : e.sig) out.writeInt(v);
+                    writeString(out, e.answer);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn("Falha a gravar cache de semelhança", e);
+        }
+    }
+
+    // writeUTF só aceita até 64 KB
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void dispose() {
+        save();
+    }
+
+    private static final class Entry {
+        final int id;
+        final String scope;        // modelo, system prompt e temperatura
+        final String instruction;  // texto fora dos blocos de código; tem de ser igual
+        final int[] sig;
+        final String answer;
+
+        Entry(int id, String scope, String instruction, int[] sig, String answer) {
+            this.id = id;
+            this.scope = scope;
+            this.instruction = instruction;
+            this.sig = sig;
+            this.answer = answer;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Custo de arranque e da primeira abertura do plugin, comparado com um orçamento fixo.
+ * Cada fase conta só a primeira vez que acontece (tempo e classes carregadas pela JVM
+ * nesse intervalo — valor aproximado, inclui outras threads) e vai também para o
+ * {@link Metrics} como "startup.&lt;fase&gt;".
+ */
+public final class StartupBudget {
+
+    private static final Logger LOG = Logger.getInstance(StartupBudget.class);
+
+    public enum Phase {
+        SETTINGS_LOAD("settings.load", 10),
+        INLINE_INIT("inline.init", 10),
+        TOOLWINDOW_BUILD("toolwindow.build", 80),
+        HISTORY_LOAD("history.load", 150),
+        HISTORY_RENDER("history.render", 150),
+        HTTP_INIT("http.init", 200);
+
+        final String key;
+        final long budgetMs;
+
+        Phase(String key, long budgetMs) {
+            this.key = key;
+            this.budgetMs = budgetMs;
+        }
+    }
+
+    /** Início de uma medição; {@link #end()} só regista se a fase ainda não tiver amostra. */
+    public static final class Mark {
+        private final Phase phase;
+        private final long t0 = System.nanoTime();
+        private final long classes0 = loadedClasses();
+
+        private Mark(Phase phase) {
+            this.phase = phase;
+        }
+
+        public void end() {
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            long classes = Math.max(0, loadedClasses() - classes0);
+            if (FIRST.putIfAbsent(phase, new long[]{ms, classes}) != null) return;
+            Metrics.record("startup." + phase.key, ms);
+            if (ms > phase.budgetMs) {
+                Metrics.inc("startup.over_budget");
+                LOG.info("ChatGPT: fase " + phase.key + " demorou " + ms + " ms (orçamento " + phase.budgetMs + " ms)");
+            }
+        }
+    }
+
+    private static final Map<Phase, long[]> FIRST = new ConcurrentHashMap<>();
+    private static final ClassLoadingMXBean CLASSES = ManagementFactory.getClassLoadingMXBean();
+
+    private StartupBudget() {}
+
+    public static Mark begin(Phase phase) {
+        return new Mark(phase);
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder(String.format("Arranque (1.ª vez)%n  %-20s %7s %9s %8s%n",
+                "", "ms", "orçam.", "classes"));
+        long total = 0;
+        long budget = 0;
+        for (Phase p : Phase.values()) {
+            budget += p.budgetMs;
+            long[] v = FIRST.get(p);
+            if (v == null) {
+                sb.append(String.format("  %-20s %7s %9d %8s%n", p.key, "-", p.budgetMs, "-"));
+                continue;
+            }
+            total += v[0];
+            sb.append(String.format("  %-20s %7d %9d %8d%s%n", p.key, v[0], p.budgetMs, v[1],
+                    v[0] > p.budgetMs ? "  EXCEDIDO" : ""));
+        }
+        sb.append(String.format("  %-20s %7d %9d%n", "total", total, budget));
+        return sb.toString();
+    }
+
+    private static long loadedClasses() {
+        return CLASSES.getTotalLoadedClassCount();
+    }
+}
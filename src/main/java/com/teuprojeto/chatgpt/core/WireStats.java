@@ -0,0 +1,98 @@
+package com.teuprojeto.chatgpt.core;
+
+import com.intellij.openapi.diagnostic.Logger;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+import java.io.IOException;
+
+/**
+ * Contas de um pedido HTTP: bytes no fio (depois do gzip) e do JSON (antes/depois),
+ * tempo à espera da rede e tempo de descompressão + parse. No fim vai para as
+ * {@link Metrics} ("http.*") e fica como "último pedido" no diálogo de estatísticas.
+ */
+public final class WireStats {
+
+    private static final Logger LOG = Logger.getInstance(WireStats.class);
+
+    private static volatile String last;
+
+    long sentJson;
+    long sentWire;
+    boolean gzipSent;
+    boolean gzipReceived;
+    long parseNs;
+    private final long[] recvWire = new long[2];  // bytes, ns à espera
+    private final long[] recvJson = new long[2];
+    private long t0;
+    private boolean finished;
+
+    /** Conta o que é lido de {@code source}; o tempo dentro de read() é tempo de rede. */
+    Source countWire(Source source) {
+        return counting(source, recvWire);
+    }
+
+    /** Conta o que sai já descomprimido (igual ao fio quando não há gzip). */
+    Source countJson(Source source) {
+        return counting(source, recvJson);
+    }
+
+    void startReading() {
+        t0 = System.nanoTime();
+    }
+
+    /** Tempo de leitura que não foi espera pela rede: inflate + parse (+ callbacks no streaming). */
+    void stopReading() {
+        if (t0 != 0) parseNs = Math.max(0, System.nanoTime() - t0 - recvWire[1]);
+    }
+
+    void finish() {
+        if (finished) return;
+        finished = true;
+        Metrics.inc("http.requests");
+        Metrics.add("http.bytes.up.json", sentJson);
+        Metrics.add("http.bytes.up.wire", sentWire);
+        Metrics.add("http.bytes.down.wire", recvWire[0]);
+        Metrics.add("http.bytes.down.json", recvJson[0]);
+        if (gzipSent) Metrics.inc("http.gzip.up");
+        if (gzipReceived) Metrics.inc("http.gzip.down");
+        Metrics.record("http.parse.ms", parseNs / 1_000_000);
+        last = line();
+        LOG.debug(last);
+    }
+
+    private String line() {
+        return String.format("↑ %s%s · ↓ %s%s · rede %d ms · parse %d ms",
+                kb(sentWire), gzipSent ? " (JSON " + kb(sentJson) + ", gzip)" : "",
+                kb(recvWire[0]), gzipReceived ? " (JSON " + kb(recvJson[0]) + ", gzip)" : "",
+                recvWire[1] / 1_000_000, parseNs / 1_000_000);
+    }
+
+    /** Linhas para o diálogo de estatísticas. */
+    public static String report() {
+        long n = Metrics.count("http.requests");
+        if (n == 0) return "Rede: (sem pedidos ainda)";
+        long up = Metrics.count("http.bytes.up.wire"), upJson = Metrics.count("http.bytes.up.json");
+        long down = Metrics.count("http.bytes.down.wire"), downJson = Metrics.count("http.bytes.down.json");
+        return String.format("Rede: %d pedidos, ↑ %s no fio / %s JSON, ↓ %s no fio / %s JSON%nÚltimo pedido: %s",
+                n, kb(up), kb(upJson), kb(down), kb(downJson), last);
+    }
+
+    private static String kb(long bytes) {
+        return bytes < 1024 ? bytes + " B" : String.format("%.1f KB", bytes / 1024.0);
+    }
+
+    private static Source counting(Source source, long[] acc) {
+        return new ForwardingSource(source) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long t = System.nanoTime();
+                long n = super.read(sink, byteCount);
+                acc[1] += System.nanoTime() - t;
+                if (n > 0) acc[0] += n;
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package com.teuprojeto.chatgpt.inline;
+
+import com.intellij.codeInsight.inline.completion.InlineCompletionEvent;
+import com.intellij.codeInsight.inline.completion.InlineCompletionProvider;
+import com.intellij.codeInsight.inline.completion.InlineCompletionProviderID;
+import com.intellij.codeInsight.inline.completion.InlineCompletionRequest;
+import com.intellij.codeInsight.inline.completion.elements.InlineCompletionGrayTextElement;
+import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSingleSuggestion;
+import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSuggestion;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.CaretEvent;
+import com.intellij.openapi.editor.event.CaretListener;
+import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.teuprojeto.chatgpt.core.Metrics;
+import com.teuprojeto.chatgpt.core.StartupBudget;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
+import kotlin.Unit;
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.intrinsics.IntrinsicsKt;
+import kotlinx.coroutines.Job;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sugestões inline (texto cinzento) a partir do ChatGPT.
+ * No EDT só se fazem verificações baratas; o pedido é gerido pelo
+ * {@link InlineSuggestionEngine}. {@code getSuggestion} suspende a coroutine do inline
+ * completion em vez de bloquear a thread dela, e quando a plataforma a cancela (nova
+ * tecla, Esc) o pedido HTTP é cancelado logo.
+ * <p>
+ * O debounce não usa o {@code DebouncedInlineCompletionProvider}: o {@code delay} dele é
+ * um {@code kotlin.time.Duration} (inline class), que não se consegue sobrepor a partir
+ * de Java. O do motor é um timer, sem thread à espera.
+ */
+public class ChatGptInlineCompletionProvider implements InlineCompletionProvider {
+
+    private static final InlineCompletionProviderID ID = new InlineCompletionProviderID("ChatGPT");
+    private static final String MODEL = "gpt-4o-mini";
+
+    // o provider é instanciado com o primeiro editor; o motor e o listener só quando a feature é usada
+    private volatile InlineSuggestionEngine engine;
+
+    private InlineSuggestionEngine engine() {
+        InlineSuggestionEngine e = engine;
+        if (e != null) return e;
+        synchronized (this) {
+            if (engine == null) {
+                StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.INLINE_INIT);
+                InlineSuggestionEngine created = new InlineSuggestionEngine(
+                        AppExecutorUtil.getAppScheduledExecutorService(), AppExecutorUtil.getAppExecutorService());
+                // cursor mexeu => o pedido pendente deixa de interessar
+                EditorFactory.getInstance().getEventMulticaster().addCaretListener(new CaretListener() {
+                    @Override
+                    public void caretPositionChanged(@NotNull CaretEvent event) {
+                        created.onCaretMoved(event.getEditor(), event.getEditor().getCaretModel().getOffset());
+                    }
+                }, ApplicationManager.getApplication());
+                engine = created;
+                mark.end();
+            }
+            return engine;
+        }
+    }
+
+    @Override
+    public @NotNull InlineCompletionProviderID getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean isEnabled(@NotNull InlineCompletionEvent event) {
+        if (!(event instanceof InlineCompletionEvent.DocumentChange)) return false;
+        ChatGptSettingsState s = ChatGptSettingsState.getInstance();
+        if (!s.isInlineCompletion() || s.getApiKey().isBlank()) return false;
+        Metrics.inc("inline.keystrokes");
+        return true;
+    }
+
+    @Override
+    public @Nullable Object getSuggestion(@NotNull InlineCompletionRequest request,
+                                          @NotNull Continuation<? super InlineCompletionSuggestion> continuation) {
+        ChatGptSettingsState s = ChatGptSettingsState.getInstance();
+        String fileName = request.getFile().getName();
+        CharSequence text = request.getDocument().getImmutableCharSequence();
+        InlineSuggestionEngine engine = engine();
+        String cached = engine.cached(fileName, text, request.getEndOffset());
+        if (cached != null) return suggestion(cached);
+
+        Handoff handoff = new Handoff(continuation);
+        InlineSuggestionEngine.Pending pending = engine.suggest(s.getApiKey(), MODEL, request.getEditor(), fileName,
+                text, request.getEndOffset(), s.getInlineDebounceMs(), s.getInlineBudgetMs(),
+                found -> handoff.complete(suggestion(found)));
+        // coroutine cancelada => cancela o pedido (e o Call); depois de terminar é um no-op
+        Job job = continuation.getContext().get(Job.Key);
+        if (job != null) {
+            job.invokeOnCompletion(cause -> {
+                pending.cancel();
+                return Unit.INSTANCE;
+            });
+        }
+        return handoff.suspendOrResult();
+    }
+
+    private static InlineCompletionSuggestion suggestion(@Nullable String text) {
+        if (text == null) return InlineCompletionSuggestion.Companion.empty();
+        return InlineCompletionSingleSuggestion.Companion.build(new UserDataHolderBase(),
+                (collector, data, cont) -> collector.emit(new InlineCompletionGrayTextElement(text), cont));
+    }
+
+    /**
+     * Passagem do resultado para a coroutine, como o {@code suspendCoroutine} do Kotlin:
+     * se chegar antes de {@code getSuggestion} devolver, vai como valor de retorno;
+     * depois disso, retoma a coroutine (pelo dispatcher dela).
+     */
+    private static final class Handoff {
+        private static final int UNDECIDED = 0, SUSPENDED = 1, RESUMED = 2;
+
+        private final Continuation<? super InlineCompletionSuggestion> continuation;
+        private final AtomicInteger state = new AtomicInteger(UNDECIDED);
+        private volatile InlineCompletionSuggestion result;
+
+        Handoff(Continuation<? super InlineCompletionSuggestion> continuation) {
+            this.continuation = continuation;
+        }
+
+        void complete(InlineCompletionSuggestion value) {
+            result = value;
+            if (!state.compareAndSet(UNDECIDED, RESUMED)) {
+                IntrinsicsKt.intercepted(continuation).resumeWith(value);
+            }
+        }
+
+        Object suspendOrResult() {
+            if (state.compareAndSet(UNDECIDED, SUSPENDED)) return IntrinsicsKt.getCOROUTINE_SUSPENDED();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.teuprojeto.chatgpt.inline;
+
+import com.teuprojeto.chatgpt.core.Metrics;
+import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Lógica das sugestões inline, independente da API do IntelliJ:
+ * debounce, cancelamento de pedidos obsoletos, cache pelo texto à volta do cursor e
+ * orçamento de latência. Nenhuma thread fica parada à espera: o debounce é um timer
+ * e o pedido só ocupa uma thread enquanto está na rede. Um pedido novo, um movimento
+ * do cursor ou o cancelamento pela plataforma cancelam o pedido em curso, incluindo
+ * o {@code Call} HTTP.
+ */
+final class InlineSuggestionEngine {
+
+    private static final String SYSTEM =
+            "És um motor de autocompletar código. Devolve APENAS o texto a inserir na posição <CURSOR>, "
+                    + "sem explicações, sem repetir o que já existe e sem blocos ```.";
+    private static final int PREFIX_CHARS = 2000;
+    private static final int SUFFIX_CHARS = 500;
+    private static final int MAX_TOKENS = 64;
+    private static final int CACHE_SIZE = 256;
+
+    /** Pedido pendente; {@link #cancel()} pode ser chamado de qualquer thread, mais de uma vez. */
+    interface Pending {
+        void cancel();
+    }
+
+    private record Key(String fileName, String prefix, String suffix) {}
+
+    private final ScheduledExecutorService timer;
+    private final Executor io;
+    private volatile Request current;
+
+    private final Map<Key, String> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /** {@code timer} só conta o debounce; os pedidos (bloqueantes) correm em {@code io}. */
+    InlineSuggestionEngine(ScheduledExecutorService timer, Executor io) {
+        this.timer = timer;
+        this.io = io;
+    }
+
+    /** Chamado no EDT a cada movimento do cursor: só compara e, se preciso, cancela. */
+    void onCaretMoved(Object editor, int offset) {
+        Request r = current;
+        if (r != null && editor == r.editor && offset != r.offset && r.stop()) {
+            Metrics.inc("inline.cancel.caret");
+        }
+    }
+
+    /** Sugestão já em cache para este ponto do ficheiro, ou {@code null}. Barato: pode correr em qualquer thread. */
+    String cached(String fileName, CharSequence text, int offset) {
+        String hit = cache.get(key(fileName, text, offset));
+        if (hit != null) {
+            Metrics.inc("inline.requests");
+            Metrics.inc("inline.cache.hit");
+            Metrics.record("inline.latency", 0);
+        }
+        return hit;
+    }
+
+    /**
+     * Agenda o pedido para depois do debounce e devolve logo. {@code done} é chamado
+     * exatamente uma vez, noutra thread ou dentro de {@link Pending#cancel()}: com a
+     * sugestão, ou com {@code null} se o pedido ficou obsoleto, foi cancelado, estourou
+     * o orçamento ou falhou.
+     */
+    Pending suggest(String apiKey, String model, Object editor, String fileName,
+                    CharSequence text, int offset, long debounceMs, long budgetMs, Consumer<String> done) {
+        Metrics.inc("inline.requests");
+        Request r = new Request(apiKey, model, editor, fileName, key(fileName, text, offset), offset, budgetMs, done);
+        Request previous = current;
+        current = r;
+        if (previous != null) previous.stop();
+        // debounce: se entretanto chegar outra tecla, este pedido morre aqui sem ir à rede
+        r.timer = timer.schedule(() -> io.execute(r::run), debounceMs, TimeUnit.MILLISECONDS);
+        return r;
+    }
+
+    private static Key key(String fileName, CharSequence text, int offset) {
+        String prefix = text.subSequence(Math.max(0, offset - PREFIX_CHARS), offset).toString();
+        String suffix = text.subSequence(offset, Math.min(text.length(), offset + SUFFIX_CHARS)).toString();
+        return new Key(fileName, prefix, suffix);
+    }
+
+    private final class Request implements Pending {
+        final String apiKey;
+        final String model;
+        final Object editor;
+        final String fileName;
+        final Key key;
+        final int offset;
+        final long budgetMs;
+        final Consumer<String> done;
+        final long t0 = System.nanoTime();
+        final OpenAiHttp.Cancellation cancellation = new OpenAiHttp.Cancellation();
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile ScheduledFuture<?> timer;
+        volatile boolean sent;
+
+        Request(String apiKey, String model, Object editor, String fileName, Key key, int offset,
+                long budgetMs, Consumer<String> done) {
+            this.apiKey = apiKey;
+            this.model = model;
+            this.editor = editor;
+            this.fileName = fileName;
+            this.key = key;
+            this.offset = offset;
+            this.budgetMs = budgetMs;
+            this.done = done;
+        }
+
+        @Override
+        public void cancel() {
+            stop();
+        }
+
+        // true se foi esta chamada que terminou o pedido
+        boolean stop() {
+            cancellation.cancel();
+            ScheduledFuture<?> t = timer;
+            if (t != null) t.cancel(false);
+            if (!finish(null)) return false;
+            Metrics.inc(sent ? "inline.cancel.stale" : "inline.cancel.debounce");
+            return true;
+        }
+
+        private boolean finish(String suggestion) {
+            if (!finished.compareAndSet(false, true)) return false;
+            if (current == this) current = null;
+            done.accept(suggestion);
+            return true;
+        }
+
+        void run() {
+            if (finished.get()) return;
+            if (elapsedMs(t0) >= budgetMs) {
+                Metrics.inc("inline.drop.budget");
+                finish(null);
+                return;
+            }
+            sent = true;
+            StringBuilder out = new StringBuilder();
+            try {
+                // na fila só espera enquanto houver orçamento e o pedido ainda interessar
+                RequestScheduler.run(RequestScheduler.Lane.EDITOR,
+                        () -> cancellation.getAsBoolean() || elapsedMs(t0) >= budgetMs, 0,
+                        () -> OpenAiHttp.completeStream(apiKey, model, SYSTEM,
+                                "Ficheiro: " + fileName + "\n" + key.prefix() + "<CURSOR>" + key.suffix(),
+                                MAX_TOKENS, Math.max(1, budgetMs - elapsedMs(t0)), cancellation, out::append));
+            } catch (Exception e) {
+                // cancelado, timeout do orçamento ou erro de rede: a sugestão simplesmente não aparece
+                if (!cancellation.getAsBoolean()) {
+                    Metrics.inc(elapsedMs(t0) >= budgetMs ? "inline.drop.budget" : "inline.errors");
+                }
+                finish(null);
+                return;
+            }
+            if (cancellation.getAsBoolean()) return; // já terminado pelo stop()
+            long took = elapsedMs(t0);
+            if (took > budgetMs) {
+                Metrics.inc("inline.drop.budget");
+                finish(null);
+                return;
+            }
+
+            String suggestion = clean(out.toString(), key.suffix());
+            if (suggestion.isEmpty()) {
+                finish(null);
+                return;
+            }
+            cache.put(key, suggestion);
+            if (finish(suggestion)) {
+                Metrics.record("inline.latency", took);
+                Metrics.inc("inline.shown");
+            }
+        }
+    }
+
+    private static String clean(String s, String suffix) {
+        String t = s;
+        if (t.startsWith("```")) {
+            int nl = t.indexOf('\n');
+            t = nl >= 0 ? t.substring(nl + 1) : "";
+        }
+        int fence = t.lastIndexOf("```");
+        if (fence >= 0) t = t.substring(0, fence);
+        t = t.replace("<CURSOR>", "");
+        // não sugerir o que já está a seguir ao cursor
+        if (!suffix.isEmpty() && t.endsWith(suffix.strip())) t = t.substring(0, t.length() - suffix.strip().length());
+        return t.stripTrailing();
+    }
+
+    private static long elapsedMs(long t0) {
+        return (System.nanoTime() - t0) / 1_000_000L;
+    }
+}
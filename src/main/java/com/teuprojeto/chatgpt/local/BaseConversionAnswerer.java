@@ -0,0 +1,54 @@
+package com.teuprojeto.chatgpt.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** "0xff em decimal", "converte 255 para binário", "0b1010 em hex". */
+public final class BaseConversionAnswerer implements LocalAnswerer {
+
+    private static final Pattern CONVERT = Pattern.compile(
+            "^(?:converte(?:r)?\\s+)?(-?(?:0x[0-9a-f]+|0b[01]+|0o[0-7]+|\\d+))\\s*(?:(?:em|para|to|in)\\s+)?"
+                    + "(hex|hexadecimal|bin|binario|binary|dec|decimal|oct|octal)\\s*\\??$");
+
+    @Override
+    public @NotNull String id() {
+        return "base";
+    }
+
+    @Override
+    public @NotNull Collection<String> keywords() {
+        return List.of("hex", "hexadecimal", "bin", "binario", "binary", "dec", "decimal", "oct", "octal");
+    }
+
+    @Override
+    public @Nullable String answer(@NotNull LocalQuery q) {
+        Matcher m = CONVERT.matcher(q.normalized);
+        if (!m.matches()) return null;
+
+        String lit = m.group(1);
+        boolean negative = lit.startsWith("-");
+        if (negative) lit = lit.substring(1);
+        BigInteger v;
+        if (lit.startsWith("0x")) v = new BigInteger(lit.substring(2), 16);
+        else if (lit.startsWith("0b")) v = new BigInteger(lit.substring(2), 2);
+        else if (lit.startsWith("0o")) v = new BigInteger(lit.substring(2), 8);
+        else v = new BigInteger(lit);
+        if (negative) v = v.negate();
+
+        String sign = v.signum() < 0 ? "-" : "";
+        BigInteger abs = v.abs();
+        String out = switch (m.group(2)) {
+            case "hex", "hexadecimal" -> sign + "0x" + abs.toString(16);
+            case "bin", "binario", "binary" -> sign + "0b" + abs.toString(2);
+            case "oct", "octal" -> sign + "0o" + abs.toString(8);
+            default -> v.toString();
+        };
+        return "`" + m.group(1) + "` = `" + out + "`";
+    }
+}
@@ -0,0 +1,44 @@
+package com.teuprojeto.chatgpt.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/** Data e hora locais (evita respostas desatualizadas da API). */
+public final class DateTimeAnswerer implements LocalAnswerer {
+
+    private static final Locale PT = Locale.forLanguageTag("pt-PT");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("EEEE, d 'de' MMMM 'de' uuuu", PT);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm", PT);
+
+    private static final Pattern ASK_DATE =
+            Pattern.compile("\\b(que dia e hoje|data de hoje|hoje que dia|data atual|what day is (it )?today|today's date)\\b");
+    private static final Pattern ASK_TIME =
+            Pattern.compile("\\b(que horas sao|hora atual|agora que horas|what time is it)\\b");
+
+    @Override
+    public @NotNull String id() {
+        return "datetime";
+    }
+
+    @Override
+    public @NotNull Collection<String> keywords() {
+        return List.of("dia", "data", "horas", "hora", "day", "date", "time");
+    }
+
+    @Override
+    public @Nullable String answer(@NotNull LocalQuery q) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (ASK_DATE.matcher(q.normalized).find()) return LocalDate.now(zone).format(DATE);
+        if (ASK_TIME.matcher(q.normalized).find()) return LocalTime.now(zone).format(TIME);
+        return null;
+    }
+}
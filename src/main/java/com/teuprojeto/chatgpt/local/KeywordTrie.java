@@ -0,0 +1,49 @@
+package com.teuprojeto.chatgpt.local;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trie de palavras-chave sobre texto normalizado. Uma passagem pelo prompt: em
+ * cada início de palavra (letra precedida de não-letra, por isso "10km" tem a
+ * palavra "km") segue a trie e recolhe quem termina numa fronteira de palavra.
+ */
+final class KeywordTrie<T> {
+
+    private static final class Node<T> {
+        final Map<Character, Node<T>> next = new HashMap<>();
+        List<T> values;
+    }
+
+    private final Node<T> root = new Node<>();
+
+    void add(String keyword, T value) {
+        Node<T> n = root;
+        for (int i = 0; i < keyword.length(); i++) {
+            n = n.next.computeIfAbsent(keyword.charAt(i), c -> new Node<>());
+        }
+        if (n.values == null) n.values = new ArrayList<>(1);
+        if (!n.values.contains(value)) n.values.add(value);
+    }
+
+    /** Valores de todas as palavras-chave presentes, pela ordem em que aparecem no texto. */
+    Set<T> match(String text) {
+        Set<T> out = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isLetter(text.charAt(i)) || (i > 0 && Character.isLetter(text.charAt(i - 1)))) continue;
+            Node<T> n = root;
+            for (int j = i; j < text.length(); j++) {
+                n = n.next.get(text.charAt(j));
+                if (n == null) break;
+                if (n.values != null && (j + 1 == text.length() || !Character.isLetterOrDigit(text.charAt(j + 1)))) {
+                    out.addAll(n.values);
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,23 @@
+package com.teuprojeto.chatgpt.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Resposta local (sem rede) para um tipo de pergunta. Registado no EP
+ * {@code com.teuprojeto.chatgpt.localAnswerer}; o {@link LocalIntentRouter} só
+ * chama {@link #answer} quando o prompt contém uma das {@link #keywords()}.
+ */
+public interface LocalAnswerer {
+
+    /** Nome curto, usado nas métricas ("local.hit.&lt;id&gt;"). */
+    @NotNull String id();
+
+    /** Palavras ou expressões em minúsculas e sem acentos que indicam este tipo de pergunta. */
+    @NotNull Collection<String> keywords();
+
+    /** Resposta pronta (markdown), ou {@code null} se afinal a pergunta não é deste tipo. */
+    @Nullable String answer(@NotNull LocalQuery query);
+}
@@ -0,0 +1,84 @@
+package com.teuprojeto.chatgpt.local;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.project.Project;
+import com.teuprojeto.chatgpt.core.Metrics;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decide se um prompt tem resposta local. O filtro é uma trie com as palavras-chave
+ * de todos os {@link LocalAnswerer}s (construída uma vez, refeita se o EP mudar);
+ * só os answerers cujas palavras aparecem no prompt correm os seus padrões.
+ */
+public final class LocalIntentRouter {
+
+    private static final Logger LOG = Logger.getInstance(LocalIntentRouter.class);
+
+    static final ExtensionPointName<LocalAnswerer> EP =
+            ExtensionPointName.create("com.teuprojeto.chatgpt.localAnswerer");
+
+    // prompts compridos são perguntas a sério, não "que horas são"
+    private static final int MAX_PROMPT_CHARS = 300;
+
+    private static volatile KeywordTrie<LocalAnswerer> trie;
+    private static boolean listening;
+
+    private LocalIntentRouter() {}
+
+    /** Resposta local para {@code prompt}, ou {@code null} se deve ir à API. */
+    public static @Nullable String route(String prompt, @Nullable Project project) {
+        long t0 = System.nanoTime();
+        String answer = null;
+        String hitId = null;
+        if (prompt != null && !prompt.isBlank() && prompt.length() <= MAX_PROMPT_CHARS) {
+            LocalQuery q = new LocalQuery(prompt, project);
+            for (LocalAnswerer a : trie().match(q.normalized)) {
+                try {
+                    answer = a.answer(q);
+                } catch (RuntimeException e) {
+                    LOG.warn("Resposta local '" + a.id() + "' falhou", e);
+                }
+                if (answer != null) {
+                    hitId = a.id();
+                    break;
+                }
+            }
+        }
+        Metrics.inc("local.route");
+        Metrics.add("local.route.ns", System.nanoTime() - t0);
+        if (hitId != null) {
+            Metrics.inc("local.hit");
+            Metrics.inc("local.hit." + hitId);
+        }
+        return answer;
+    }
+
+    /** Linha para o diálogo de estatísticas. */
+    public static String report() {
+        long routes = Metrics.count("local.route");
+        long hits = Metrics.count("local.hit");
+        if (routes == 0) return "Respostas locais: (sem pedidos ainda)";
+        return String.format("Respostas locais: %d/%d (%.0f%%), ~%d µs por decisão",
+                hits, routes, 100.0 * hits / routes, Metrics.count("local.route.ns") / routes / 1000);
+    }
+
+    private static KeywordTrie<LocalAnswerer> trie() {
+        KeywordTrie<LocalAnswerer> t = trie;
+        if (t != null) return t;
+        synchronized (LocalIntentRouter.class) {
+            if (trie == null) {
+                KeywordTrie<LocalAnswerer> built = new KeywordTrie<>();
+                for (LocalAnswerer a : EP.getExtensionList()) {
+                    for (String k : a.keywords()) built.add(LocalQuery.normalize(k), a);
+                }
+                if (!listening) {
+                    EP.addChangeListener(() -> trie = null, null);
+                    listening = true;
+                }
+                trie = built;
+            }
+            return trie;
+        }
+    }
+}
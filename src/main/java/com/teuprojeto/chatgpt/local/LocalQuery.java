@@ -0,0 +1,30 @@
+package com.teuprojeto.chatgpt.local;
+
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/** Prompt tal como foi escrito e normalizado (minúsculas, sem acentos, espaços colapsados). */
+public final class LocalQuery {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    public final String original;
+    public final String normalized;
+    public final @Nullable Project project;
+
+    LocalQuery(String original, @Nullable Project project) {
+        this.original = original.trim();
+        this.normalized = normalize(this.original);
+        this.project = project;
+    }
+
+    static String normalize(String s) {
+        String n = Normalizer.normalize(s.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return SPACES.matcher(MARKS.matcher(n).replaceAll("")).replaceAll(" ").trim();
+    }
+}
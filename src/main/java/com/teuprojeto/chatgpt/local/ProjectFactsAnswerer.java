@@ -0,0 +1,103 @@
+package com.teuprojeto.chatgpt.local;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Factos do projeto aberto: ficheiro atual, branch do Git e SDK. */
+public final class ProjectFactsAnswerer implements LocalAnswerer {
+
+    private static final Logger LOG = Logger.getInstance(ProjectFactsAnswerer.class);
+
+    // A pergunta inteira, como nos conversores: "que branch devo usar para hotfixes?" ou
+    // "qual a diferença entre o JDK 17 e 21?" são perguntas a sério e vão para o modelo.
+    private static final Pattern ASK_FILE = Pattern.compile(
+            "^(?:(?:em )?que (?:ficheiro|arquivo)(?: (?:e este|e o atual|esta aberto|tenho aberto|estou a editar|estou editando))?"
+                    + "|qual (?:e )?o (?:ficheiro|arquivo)(?: atual| aberto)?|(?:ficheiro|arquivo) (?:atual|aberto)"
+                    + "|what(?:'s| is) the current file|(?:which|what) file (?:am i in|am i editing|is open|is this)"
+                    + "|current file)\\s*\\??$");
+    private static final Pattern ASK_BRANCH = Pattern.compile(
+            "^(?:(?:em )?que (?:branch|ramo)(?: (?:e este|e esta|estou|estou a usar|esta ativo|esta ativa))?"
+                    + "|qual (?:e )?(?:a|o) (?:branch|ramo)(?: atual)?|(?:branch|ramo) atual"
+                    + "|what(?:'s| is) the current branch|(?:which|what) branch (?:am i on|is this)|current branch)\\s*\\??$");
+    private static final Pattern ASK_SDK = Pattern.compile(
+            "^(?:(?:que|qual (?:e )?(?:o|a)) (?:sdk|jdk)(?: (?:do projeto|atual|estou a usar|uso|e este))?"
+                    + "|(?:sdk|jdk) (?:do projeto|atual)|what(?:'s| is) the (?:project |current )?(?:sdk|jdk)"
+                    + "|(?:which|what) (?:sdk|jdk)(?: (?:am i using|is this|does the project use))?|current (?:sdk|jdk))\\s*\\??$");
+
+    @Override
+    public @NotNull String id() {
+        return "project";
+    }
+
+    @Override
+    public @NotNull Collection<String> keywords() {
+        return List.of("ficheiro", "arquivo", "file", "branch", "ramo", "sdk", "jdk");
+    }
+
+    @Override
+    public @Nullable String answer(@NotNull LocalQuery q) {
+        Project project = q.project;
+        if (project == null || project.isDisposed()) return null;
+        if (ASK_FILE.matcher(q.normalized).matches()) return currentFile(project);
+        if (ASK_BRANCH.matcher(q.normalized).matches()) return branch(project);
+        if (ASK_SDK.matcher(q.normalized).matches()) return sdk(project);
+        return null;
+    }
+
+    private static String currentFile(Project project) {
+        FileEditorManager fem = FileEditorManager.getInstance(project);
+        VirtualFile[] files = fem.getSelectedFiles();
+        if (files.length == 0) return "Não há nenhum ficheiro aberto no editor.";
+        String path = files[0].getPath();
+        String base = project.getBasePath();
+        if (base != null && path.startsWith(base + "/")) path = path.substring(base.length() + 1);
+        Editor editor = fem.getSelectedTextEditor();
+        String line = editor == null ? "" :
+                ", linha " + (editor.getCaretModel().getLogicalPosition().line + 1);
+        return "`" + path + "`" + line;
+    }
+
+    // Lê .git/HEAD diretamente (o plugin não depende do Git4Idea); suporta worktrees (.git ficheiro)
+    private static String branch(Project project) {
+        String base = project.getBasePath();
+        if (base == null) return null;
+        try {
+            Path git = Path.of(base, ".git");
+            if (Files.isRegularFile(git)) {
+                String ref = Files.readString(git, StandardCharsets.UTF_8).trim();
+                if (!ref.startsWith("gitdir:")) return null;
+                git = git.getParent().resolve(ref.substring(7).trim()).normalize();
+            }
+            Path head = git.resolve("HEAD");
+            if (!Files.isRegularFile(head)) return "O projeto não é um repositório Git.";
+            String h = Files.readString(head, StandardCharsets.UTF_8).trim();
+            if (h.startsWith("ref: refs/heads/")) return "Branch atual: `" + h.substring(16) + "`";
+            return "HEAD destacado em `" + h.substring(0, Math.min(10, h.length())) + "`";
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Não foi possível ler .git/HEAD", e);
+            return null;
+        }
+    }
+
+    private static String sdk(Project project) {
+        Sdk sdk = ProjectRootManager.getInstance(project).getProjectSdk();
+        if (sdk == null) return "O projeto não tem SDK definido.";
+        String version = sdk.getVersionString();
+        return "SDK do projeto: `" + sdk.getName() + "`" + (version != null && !version.equals(sdk.getName()) ? " (" + version + ")" : "");
+    }
+}
@@ -0,0 +1,97 @@
+package com.teuprojeto.chatgpt.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Testa uma regex Java contra um texto: {@code regex /\d+/ em "abc123"} ou com
+ * crases. O matching tem um limite de tempo (regex com backtracking catastrófico
+ * não bloqueia o EDT).
+ */
+public final class RegexTestAnswerer implements LocalAnswerer {
+
+    private static final Pattern ASK = Pattern.compile(
+            "^\\s*(?:testa(?:r)?\\s+(?:a\\s+)?)?regexp?\\s+([/`])(.+?)\\1\\s*(?:em|contra|on|against|com|sobre)?\\s*([\"'`])(.*)\\3\\s*\\??\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final long BUDGET_MS = 50;
+    private static final int MAX_MATCHES = 10;
+
+    @Override
+    public @NotNull String id() {
+        return "regex";
+    }
+
+    @Override
+    public @NotNull Collection<String> keywords() {
+        return List.of("regex", "regexp");
+    }
+
+    @Override
+    public @Nullable String answer(@NotNull LocalQuery q) {
+        Matcher ask = ASK.matcher(q.original);
+        if (!ask.matches()) return null;
+
+        Pattern p;
+        try {
+            p = Pattern.compile(ask.group(2));
+        } catch (PatternSyntaxException e) {
+            return "Regex inválida: `" + e.getDescription() + "` (posição " + e.getIndex() + ")";
+        }
+
+        String input = ask.group(4);
+        StringBuilder sb = new StringBuilder();
+        try {
+            Deadline text = new Deadline(input, System.nanoTime() + BUDGET_MS * 1_000_000);
+            Matcher m = p.matcher(text);
+            int n = 0;
+            while (m.find()) {
+                if (++n > MAX_MATCHES) {
+                    sb.append("- …\n");
+                    break;
+                }
+                sb.append("- `").append(m.group()).append("` em ").append(m.start()).append('–').append(m.end());
+                for (int g = 1; g <= m.groupCount(); g++) sb.append(", grupo ").append(g).append(": `").append(m.group(g)).append('`');
+                sb.append('\n');
+            }
+            if (n == 0) return "Sem correspondências para `" + p.pattern() + "`.";
+            boolean whole = p.matcher(text).matches();
+            return (whole ? "Casa com o texto inteiro.\n" : "Casa em parte do texto:\n") + sb;
+        } catch (Deadline.Expired e) {
+            return "A regex demorou mais de " + BUDGET_MS + " ms (backtracking excessivo?).";
+        }
+    }
+
+    // CharSequence que falha quando o tempo acaba; o Matcher consulta charAt a cada passo
+    private static final class Deadline implements CharSequence {
+        static final class Expired extends RuntimeException {
+            Expired() {
+                super(null, null, false, false);
+            }
+        }
+
+        private final CharSequence s;
+        private final long deadline;
+
+        Deadline(CharSequence s, long deadline) {
+            this.s = s;
+            this.deadline = deadline;
+        }
+
+        @Override public int length() { return s.length(); }
+        @Override public CharSequence subSequence(int a, int b) { return new Deadline(s.subSequence(a, b), deadline); }
+        @Override public String toString() { return s.toString(); }
+
+        @Override
+        public char charAt(int i) {
+            if (System.nanoTime() > deadline) throw new Expired();
+            return s.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.teuprojeto.chatgpt.local;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** "10 km em milhas", "converte 3.5 GiB para MB", "100 °F em C". */
+public final class UnitConversionAnswerer implements LocalAnswerer {
+
+    private static final Pattern CONVERT = Pattern.compile(
+            "^(?:converte(?:r)?\\s+|quanto(?:s)?\\s+(?:e|sao|da|dao)\\s+)?(-?\\d+(?:[.,]\\d+)?)\\s*°?([a-z]+)"
+                    + "\\s+(?:em|para|to|in)\\s+°?([a-z]+)\\s*\\??$");
+
+    private enum Dim { LENGTH, MASS, DATA, TIME, TEMP }
+
+    private record Unit(Dim dim, double factor, String symbol) {}
+
+    private static final Map<String, Unit> UNITS = new HashMap<>();
+
+    static {
+        unit(Dim.LENGTH, 0.001, "mm", "mm", "milimetro", "milimetros");
+        unit(Dim.LENGTH, 0.01, "cm", "cm", "centimetro", "centimetros");
+        unit(Dim.LENGTH, 1, "m", "m", "metro", "metros");
+        unit(Dim.LENGTH, 1000, "km", "km", "quilometro", "quilometros");
+        unit(Dim.LENGTH, 0.0254, "in", "in", "pol", "polegada", "polegadas", "inch", "inches");
+        unit(Dim.LENGTH, 0.3048, "ft", "ft", "pe", "pes", "feet", "foot");
+        unit(Dim.LENGTH, 0.9144, "yd", "yd", "jarda", "jardas");
+        unit(Dim.LENGTH, 1609.344, "mi", "mi", "milha", "milhas", "mile", "miles");
+        unit(Dim.MASS, 0.001, "mg", "mg");
+        unit(Dim.MASS, 1, "g", "g", "grama", "gramas");
+        unit(Dim.MASS, 1000, "kg", "kg", "quilo", "quilos");
+        unit(Dim.MASS, 1_000_000, "t", "t", "tonelada", "toneladas");
+        unit(Dim.MASS, 453.59237, "lb", "lb", "lbs", "libra", "libras");
+        unit(Dim.MASS, 28.349523125, "oz", "oz", "onca", "oncas");
+        unit(Dim.DATA, 1, "B", "b", "byte", "bytes");
+        unit(Dim.DATA, 1e3, "KB", "kb");
+        unit(Dim.DATA, 1e6, "MB", "mb");
+        unit(Dim.DATA, 1e9, "GB", "gb");
+        unit(Dim.DATA, 1e12, "TB", "tb");
+        unit(Dim.DATA, 1024, "KiB", "kib");
+        unit(Dim.DATA, 1024 * 1024, "MiB", "mib");
+        unit(Dim.DATA, 1024 * 1024 * 1024, "GiB", "gib");
+        unit(Dim.DATA, 1024.0 * 1024 * 1024 * 1024, "TiB", "tib");
+        unit(Dim.TIME, 0.001, "ms", "ms");
+        unit(Dim.TIME, 1, "s", "s", "seg", "segundo", "segundos");
+        unit(Dim.TIME, 60, "min", "min", "minuto", "minutos");
+        unit(Dim.TIME, 3600, "h", "h", "hora", "horas");
+        unit(Dim.TIME, 86400, "dias", "d", "dia", "dias");
+        unit(Dim.TEMP, 0, "°C", "c", "celsius");
+        unit(Dim.TEMP, 0, "°F", "f", "fahrenheit");
+        unit(Dim.TEMP, 0, "K", "k", "kelvin");
+    }
+
+    private static void unit(Dim dim, double factor, String symbol, String... names) {
+        Unit u = new Unit(dim, factor, symbol);
+        for (String n : names) UNITS.put(n, u);
+    }
+
+    @Override
+    public @NotNull String id() {
+        return "units";
+    }
+
+    @Override
+    public @NotNull Collection<String> keywords() {
+        return UNITS.keySet();
+    }
+
+    @Override
+    public @Nullable String answer(@NotNull LocalQuery q) {
+        Matcher m = CONVERT.matcher(q.normalized);
+        if (!m.matches()) return null;
+        Unit from = UNITS.get(m.group(2));
+        Unit to = UNITS.get(m.group(3));
+        if (from == null || to == null || from.dim != to.dim) return null;
+
+        double v = Double.parseDouble(m.group(1).replace(',', '.'));
+        double r = from.dim == Dim.TEMP ? fromKelvin(toKelvin(v, from.symbol), to.symbol) : v * from.factor / to.factor;
+        return format(v) + " " + from.symbol + " = **" + format(r) + " " + to.symbol + "**";
+    }
+
+    private static double toKelvin(double v, String symbol) {
+        return switch (symbol) {
+            case "°C" -> v + 273.15;
+            case "°F" -> (v - 32) * 5 / 9 + 273.15;
+            default -> v;
+        };
+    }
+
+    private static double fromKelvin(double k, String symbol) {
+        return switch (symbol) {
+            case "°C" -> k - 273.15;
+            case "°F" -> (k - 273.15) * 9 / 5 + 32;
+            default -> k;
+        };
+    }
+
+    // 6 algarismos significativos, sem notação científica nem zeros à direita
+    private static String format(double v) {
+        return new BigDecimal(v).round(new MathContext(6)).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.teuprojeto.chatgpt.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tokenizer para texto misto (português + código): minúsculas, sem acentos, e
+ * identificadores camelCase/snake_case indexados inteiros e pelas partes
+ * ("parseJsonBody" => parsejsonbody, parse, json, body).
+ */
+final class CodeTokenizer {
+
+    private static final int MAX_TOKEN = 64;
+
+    private CodeTokenizer() {}
+
+    static List<String> tokenize(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            while (i < n && !isWordChar(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && isWordChar(text.charAt(i))) i++;
+            if (i > start) addWord(text.subSequence(start, i).toString(), out);
+        }
+        return out;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static void addWord(String word, List<String> out) {
+        String whole = normalize(word);
+        if (whole.length() < 2 || whole.length() > MAX_TOKEN) return;
+        out.add(whole);
+
+        // partes de camelCase / snake_case / letras+dígitos
+        List<String> parts = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        for (int k = 0; k < word.length(); k++) {
+            char c = word.charAt(k);
+            char prev = k > 0 ? word.charAt(k - 1) : 0;
+            char next = k + 1 < word.length() ? word.charAt(k + 1) : 0;
+            boolean boundary = c == '_'
+                    || (Character.isUpperCase(c) && Character.isLowerCase(prev))
+                    || (Character.isUpperCase(c) && Character.isUpperCase(prev) && Character.isLowerCase(next))
+                    || (Character.isDigit(c) != Character.isDigit(prev) && k > 0);
+            if (boundary && cur.length() > 0) {
+                parts.add(cur.toString());
+                cur.setLength(0);
+            }
+            if (c != '_') cur.append(c);
+        }
+        if (cur.length() > 0) parts.add(cur.toString());
+        if (parts.size() < 2) return;
+        for (String p : parts) {
+            String t = normalize(p);
+            if (t.length() >= 2 && !t.equals(whole)) out.add(t);
+        }
+    }
+
+    private static String normalize(String s) {
+        String d = Normalizer.normalize(s.toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(d.length());
+        for (int k = 0; k < d.length(); k++) {
+            char c = d.charAt(k);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package com.teuprojeto.chatgpt.search;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState.Message;
+import com.teuprojeto.chatgpt.settings.ChatHistoryStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Pesquisa de texto sobre todas as conversas, incluindo mensagens que já saíram
+ * do histórico (capado). As mensagens são indexadas numa thread própria à medida
+ * que são adicionadas; o índice abre-se na primeira utilização.
+ * <p>
+ * Guarda no máximo {@link #MAX_DOCS} mensagens: acima disso o índice é reescrito só
+ * com as {@link #KEEP_DOCS} mais recentes. O "Limpar" da conversa apaga-o ({@link #clearAsync()}).
+ */
+@Service(Service.Level.APP)
+public final class ConversationIndex implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(ConversationIndex.class);
+
+    static final int MAX_DOCS = 20_000;
+    static final int KEEP_DOCS = 15_000;
+    private static final long CLOSE_WAIT_SECONDS = 5;
+
+    public static final class Hit {
+        public final double score;
+        public final long timestamp;
+        public final String role;
+        public final String text;
+
+        Hit(InvertedIndex.Hit h) {
+            this.score = h.score;
+            this.timestamp = h.timestamp;
+            this.role = h.role;
+            this.text = h.text;
+        }
+    }
+
+    private final ExecutorService writer =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("ChatGPT history index", 1);
+
+    private InvertedIndex index;
+    private boolean broken;
+    // mensagens do histórico indexadas ao criar o índice; um addAsync pendente delas é ignorado
+    private final Set<Long> seeded = new HashSet<>();
+
+    public static ConversationIndex getInstance() {
+        return ApplicationManager.getApplication().getService(ConversationIndex.class);
+    }
+
+    // =================== API ===================
+
+    /** Indexa em fundo; não bloqueia quem chama. */
+    public void addAsync(Message m) {
+        writer.execute(() -> {
+            synchronized (this) {
+                InvertedIndex ix = open();
+                if (ix == null || seeded.remove(key(m))) return;
+                try {
+                    ix.add(m.role, m.timestamp, m.text);
+                    if (ix.size() > MAX_DOCS) compact();
+                } catch (IOException e) {
+                    LOG.warn("Falha a indexar mensagem", e);
+                }
+            }
+        });
+    }
+
+    /** Apaga o índice em disco (em fundo, depois das mensagens já pedidas para indexar). */
+    public void clearAsync() {
+        writer.execute(() -> {
+            synchronized (this) {
+                try {
+                    if (index != null) index.close();
+                } catch (IOException e) {
+                    LOG.warn("Falha a fechar índice do histórico", e);
+                }
+                index = null;
+                broken = false;
+                seeded.clear();
+                try {
+                    deleteTree(dir());
+                    deleteTree(compactDir());
+                } catch (IOException e) {
+                    LOG.warn("Falha a apagar índice do histórico", e);
+                }
+            }
+        });
+    }
+
+    /** Pesquisa BM25, do mais relevante para o menos. */
+    public synchronized List<Hit> search(String query, int limit) {
+        InvertedIndex ix = open();
+        if (ix == null) return List.of();
+        try {
+            return ix.search(query, limit).stream().map(Hit::new).toList();
+        } catch (IOException e) {
+            LOG.warn("Falha na pesquisa do histórico", e);
+            return List.of();
+        }
+    }
+
+    // Na primeira abertura de um índice vazio indexa o histórico que já existia.
+    private InvertedIndex open() {
+        if (index != null || broken) return index;
+        try {
+            recoverCompaction();
+            index = InvertedIndex.open(dir());
+            if (index.size() == 0) {
+                for (Message m : ChatHistoryStore.getInstance().getHistory()) {
+                    index.add(m.role, m.timestamp, m.text);
+                    seeded.add(key(m));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Índice do histórico indisponível", e);
+            broken = true;
+        }
+        return index;
+    }
+
+    // =================== Retenção ===================
+
+    // Reescreve o índice só com as mensagens mais recentes: primeiro num diretório ao lado,
+    // que só substitui o atual depois de completo. Chamado com o lock, na thread do writer.
+    private void compact() throws IOException {
+        Path tmp = compactDir();
+        deleteTree(tmp);
+        try (InvertedIndex fresh = InvertedIndex.open(tmp)) {
+            index.copyTo(fresh, index.size() - KEEP_DOCS);
+        }
+        index.close();
+        index = null;
+        deleteTree(dir());
+        Files.move(tmp, dir());
+        index = InvertedIndex.open(dir());
+        LOG.info("Índice do histórico reduzido às " + index.size() + " mensagens mais recentes");
+    }
+
+    // Crash a meio de compact(): se o índice antigo ainda existe o novo pode estar
+    // incompleto e vai fora; se já foi apagado, o novo estava completo e passa a ser o índice.
+    private void recoverCompaction() throws IOException {
+        Path tmp = compactDir();
+        if (!Files.exists(tmp)) return;
+        if (Files.exists(dir())) deleteTree(tmp);
+        else Files.move(tmp, dir());
+    }
+
+    private static Path dir() {
+        return Paths.get(PathManager.getSystemPath(), "chatgpt", "index");
+    }
+
+    private static Path compactDir() {
+        return Paths.get(PathManager.getSystemPath(), "chatgpt", "index.new");
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    private static long key(Message m) {
+        return m.timestamp * 31 + (m.text != null ? m.text.hashCode() : 0);
+    }
+
+    @Override
+    public void dispose() {
+        writer.shutdown();
+        try {
+            // o que ainda está na fila grava-se antes de fechar; senão escrevia num índice já fechado
+            if (!writer.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Índice do histórico: a fechar com mensagens ainda por indexar");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (index == null) return;
+            try {
+                index.close();
+            } catch (IOException e) {
+                LOG.warn("Falha a fechar índice do histórico", e);
+            }
+        }
+    }
+}
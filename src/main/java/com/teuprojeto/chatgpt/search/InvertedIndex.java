@@ -0,0 +1,441 @@
+package com.teuprojeto.chatgpt.search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Índice invertido em disco, incremental, com ranking BM25.
+ * <ul>
+ *   <li>{@code docs.dat}: mensagens (append-only) — é a fonte de verdade;</li>
+ *   <li>{@code docs.idx}: offset + nº de tokens de cada mensagem (12 bytes);</li>
+ *   <li>{@code seg-N.bin}: segmentos imutáveis (dicionário ordenado + postings em varint).</li>
+ * </ul>
+ * As mensagens novas vão para um segmento em memória, gravado a cada
+ * {@link #FLUSH_DOCS} documentos; ao abrir, o que ainda não estava num segmento
+ * é reindexado a partir do {@code docs.dat}. Cada segmento mantém o ficheiro aberto
+ * enquanto o índice estiver aberto. Não é thread-safe: o chamador sincroniza.
+ * Não há remoção de mensagens: a retenção faz-se copiando as mais recentes para um
+ * índice novo ({@link #copyTo}).
+ */
+final class InvertedIndex implements Closeable {
+
+    static final int FLUSH_DOCS = 1000;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int SEGMENT_MAGIC = 0x43475049; // "CGPI"
+    private static final int IDX_ENTRY = 12;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    static final class Hit {
+        final int docId;
+        final double score;
+        final long timestamp;
+        final String role;
+        final String text;
+
+        Hit(int docId, double score, long timestamp, String role, String text) {
+            this.docId = docId;
+            this.score = score;
+            this.timestamp = timestamp;
+            this.role = role;
+            this.text = text;
+        }
+    }
+
+    private final Path dir;
+    private final FileChannel docs;
+    private final FileChannel idx;
+
+    private long[] docOffsets = new long[1024];
+    private int[] docLens = new int[1024];
+    private int docCount;
+    private long totalLen;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextSegmentId;
+
+    // segmento em memória: termo -> [docId, tf, docId, tf, ...]
+    private final Map<String, int[]> memPostings = new HashMap<>();
+    private final Map<String, Integer> memSizes = new HashMap<>();
+    private int memDocs;
+
+    private InvertedIndex(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        docs = FileChannel.open(dir.resolve("docs.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        idx = FileChannel.open(dir.resolve("docs.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static InvertedIndex open(Path dir) throws IOException {
+        InvertedIndex ix = new InvertedIndex(dir);
+        ix.load();
+        return ix;
+    }
+
+    int size() {
+        return docCount;
+    }
+
+    // =================== Escrita ===================
+
+    int add(String role, long timestamp, String text) throws IOException {
+        byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        long offset = docs.size();
+        ByteBuffer rec = ByteBuffer.allocate(13 + bytes.length);
+        rec.putLong(timestamp).put((byte) ("assistant".equalsIgnoreCase(role) ? 1 : 0)).putInt(bytes.length).put(bytes).flip();
+        writeFully(docs, rec, offset);
+
+        List<String> tokens = CodeTokenizer.tokenize(text == null ? "" : text);
+        ByteBuffer ie = ByteBuffer.allocate(IDX_ENTRY);
+        ie.putLong(offset).putInt(tokens.size()).flip();
+        writeFully(idx, ie, (long) docCount * IDX_ENTRY);
+
+        int docId = appendDoc(offset, tokens.size());
+        indexInMemory(docId, tokens);
+        if (memDocs >= FLUSH_DOCS) flush();
+        return docId;
+    }
+
+    /** Grava o segmento em memória (e funde segmentos se houver demasiados). */
+    void flush() throws IOException {
+        if (memDocs == 0) return;
+        TreeMap<String, int[]> sorted = new TreeMap<>();
+        for (Map.Entry<String, int[]> e : memPostings.entrySet()) {
+            sorted.put(e.getKey(), Arrays.copyOf(e.getValue(), memSizes.get(e.getKey())));
+        }
+        segments.add(writeSegment(nextSegmentId++, sorted, docCount - memDocs, docCount));
+        memPostings.clear();
+        memSizes.clear();
+        memDocs = 0;
+        docs.force(false);
+        idx.force(false);
+        if (segments.size() > MAX_SEGMENTS) merge();
+    }
+
+    private void indexInMemory(int docId, List<String> tokens) {
+        Map<String, Integer> tf = new HashMap<>();
+        for (String t : tokens) tf.merge(t, 1, Integer::sum);
+        for (Map.Entry<String, Integer> e : tf.entrySet()) {
+            int size = memSizes.getOrDefault(e.getKey(), 0);
+            int[] arr = memPostings.get(e.getKey());
+            if (arr == null) arr = new int[4];
+            else if (size + 2 > arr.length) arr = Arrays.copyOf(arr, arr.length * 2);
+            arr[size] = docId;
+            arr[size + 1] = e.getValue();
+            memPostings.put(e.getKey(), arr);
+            memSizes.put(e.getKey(), size + 2);
+        }
+        memDocs++;
+    }
+
+    private int appendDoc(long offset, int len) {
+        if (docCount == docOffsets.length) {
+            docOffsets = Arrays.copyOf(docOffsets, docCount * 2);
+            docLens = Arrays.copyOf(docLens, docCount * 2);
+        }
+        docOffsets[docCount] = offset;
+        docLens[docCount] = len;
+        totalLen += len;
+        return docCount++;
+    }
+
+    // =================== Pesquisa ===================
+
+    List<Hit> search(String query, int limit) throws IOException {
+        if (docCount == 0) return List.of();
+        Set<String> terms = new LinkedHashSet<>(CodeTokenizer.tokenize(query));
+        if (terms.isEmpty()) return List.of();
+
+        double avgdl = Math.max(1.0, (double) totalLen / docCount);
+        Map<Integer, Double> scores = new HashMap<>();
+        for (String term : terms) {
+            List<int[]> lists = new ArrayList<>();
+            int df = 0;
+            for (Segment s : segments) {
+                int[] p = s.postings(term);
+                if (p != null) {
+                    lists.add(p);
+                    df += p.length / 2;
+                }
+            }
+            int[] mem = memPostings.get(term);
+            if (mem != null) {
+                lists.add(Arrays.copyOf(mem, memSizes.get(term)));
+                df += memSizes.get(term) / 2;
+            }
+            if (df == 0) continue;
+            double idf = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+            for (int[] p : lists) {
+                for (int k = 0; k < p.length; k += 2) {
+                    int doc = p[k];
+                    int tf = p[k + 1];
+                    double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLens[doc] / avgdl));
+                    scores.merge(doc, idf * norm, Double::sum);
+                }
+            }
+        }
+
+        PriorityQueue<Map.Entry<Integer, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+            top.add(e);
+            if (top.size() > limit) top.poll();
+        }
+        List<Hit> hits = new ArrayList<>();
+        while (!top.isEmpty()) {
+            Map.Entry<Integer, Double> e = top.poll();
+            hits.add(readHit(e.getKey(), e.getValue()));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    private Hit readHit(int docId, double score) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(13);
+        readFully(docs, head, docOffsets[docId]);
+        head.flip();
+        long ts = head.getLong();
+        String role = head.get() == 1 ? "assistant" : "user";
+        ByteBuffer body = ByteBuffer.allocate(head.getInt());
+        readFully(docs, body, docOffsets[docId] + 13);
+        return new Hit(docId, score, ts, role, new String(body.array(), StandardCharsets.UTF_8));
+    }
+
+    // =================== Load ===================
+
+    private void load() throws IOException {
+        // docs.idx e docs.dat podem ter ficado com uma entrada a meio (crash)
+        int n = (int) (idx.size() / IDX_ENTRY);
+        ByteBuffer all = ByteBuffer.allocate(n * IDX_ENTRY);
+        readFully(idx, all, 0);
+        all.flip();
+        long docsEnd = 0;
+        for (int i = 0; i < n; i++) {
+            long offset = all.getLong();
+            int len = all.getInt();
+            ByteBuffer head = ByteBuffer.allocate(4);
+            if (offset + 13 > docs.size()) break;
+            readFully(docs, head, offset + 9);
+            int bytes = head.flip().getInt();
+            if (offset + 13 + bytes > docs.size()) break;
+            appendDoc(offset, len);
+            docsEnd = offset + 13 + bytes;
+        }
+        idx.truncate((long) docCount * IDX_ENTRY);
+        docs.truncate(docsEnd);
+
+        List<Path> segFiles = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "seg-*.bin")) {
+            for (Path p : ds) segFiles.add(p);
+        }
+        List<Segment> found = new ArrayList<>();
+        for (Path p : segFiles) {
+            Segment s = Segment.open(p);
+            if (s == null || s.docEnd > docCount) {
+                if (s != null) s.close();
+                Files.deleteIfExists(p);
+                continue;
+            }
+            found.add(s);
+            nextSegmentId = Math.max(nextSegmentId, s.id + 1);
+        }
+        // um merge interrompido pode deixar o segmento fundido e os originais: fica o maior
+        found.sort(Comparator.<Segment>comparingInt(s -> s.docStart).thenComparingInt(s -> s.docStart - s.docEnd));
+        int indexedUpTo = 0;
+        for (Segment s : found) {
+            if (s.docStart < indexedUpTo) {
+                s.close();
+                Files.deleteIfExists(s.file);
+                continue;
+            }
+            segments.add(s);
+            indexedUpTo = s.docEnd;
+        }
+
+        for (int d = indexedUpTo; d < docCount; d++) {
+            indexInMemory(d, CodeTokenizer.tokenize(readHit(d, 0).text));
+        }
+    }
+
+    // =================== Segmentos ===================
+
+    /** Copia as mensagens a partir de {@code fromDoc} (as mais recentes) para {@code target}. */
+    void copyTo(InvertedIndex target, int fromDoc) throws IOException {
+        for (int d = Math.max(0, fromDoc); d < docCount; d++) {
+            Hit h = readHit(d, 0);
+            target.add(h.role, h.timestamp, h.text);
+        }
+        target.flush();
+    }
+
+    private void merge() throws IOException {
+        TreeMap<String, int[]> all = new TreeMap<>();
+        for (Segment s : segments) {
+            for (String term : s.terms.keySet()) {
+                int[] p = s.postings(term);
+                all.merge(term, p, (a, b) -> {
+                    int[] r = Arrays.copyOf(a, a.length + b.length);
+                    System.arraycopy(b, 0, r, a.length, b.length);
+                    return r;
+                });
+            }
+        }
+        int start = segments.get(0).docStart;
+        int end = segments.get(segments.size() - 1).docEnd;
+        Segment merged = writeSegment(nextSegmentId++, all, start, end);
+        for (Segment s : segments) {
+            s.close();
+            Files.deleteIfExists(s.file);
+        }
+        segments.clear();
+        segments.add(merged);
+    }
+
+    private Segment writeSegment(int id, SortedMap<String, int[]> postings, int docStart, int docEnd) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream dict = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(dict);
+        for (Map.Entry<String, int[]> e : postings.entrySet()) {
+            int[] p = e.getValue();
+            int start = data.size();
+            int prev = 0;
+            for (int k = 0; k < p.length; k += 2) {
+                writeVarint(data, p[k] - prev);
+                writeVarint(data, p[k + 1]);
+                prev = p[k];
+            }
+            d.writeUTF(e.getKey());
+            d.writeInt(p.length / 2);
+            d.writeInt(start);
+            d.writeInt(data.size() - start);
+        }
+        d.flush();
+
+        Path file = dir.resolve("seg-" + id + ".bin");
+        Path tmp = dir.resolve("seg-" + id + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(id);
+            out.writeInt(docStart);
+            out.writeInt(docEnd);
+            out.writeInt(postings.size());
+            out.writeInt(dict.size());
+            dict.writeTo(out);
+            data.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Segment.open(file);
+    }
+
+    private static final class Segment implements Closeable {
+        final Path file;
+        final int id;
+        final int docStart;
+        final int docEnd;
+        final Map<String, long[]> terms = new HashMap<>(); // termo -> [offset, len]
+        final long dataStart;
+        private FileChannel channel; // aberto na 1.ª pesquisa, fechado com o índice
+
+        private Segment(Path file, int id, int docStart, int docEnd, long dataStart) {
+            this.file = file;
+            this.id = id;
+            this.docStart = docStart;
+            this.docEnd = docEnd;
+            this.dataStart = dataStart;
+        }
+
+        static Segment open(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != SEGMENT_MAGIC) return null;
+                int id = in.readInt();
+                int start = in.readInt();
+                int end = in.readInt();
+                int n = in.readInt();
+                int dictLen = in.readInt();
+                Segment s = new Segment(file, id, start, end, 24L + dictLen);
+                for (int i = 0; i < n; i++) {
+                    String term = in.readUTF();
+                    in.readInt(); // df (derivável dos postings)
+                    long off = in.readInt();
+                    long len = in.readInt();
+                    s.terms.put(term, new long[]{off, len});
+                }
+                return s;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        /** Postings descodificados como [docId, tf, ...] ou null. */
+        int[] postings(String term) throws IOException {
+            long[] t = terms.get(term);
+            if (t == null) return null;
+            ByteBuffer buf = ByteBuffer.allocate((int) t[1]);
+            if (channel == null) channel = FileChannel.open(file, StandardOpenOption.READ);
+            readFully(channel, buf, dataStart + t[0]);
+            buf.flip();
+            int[] out = new int[16];
+            int size = 0;
+            int doc = 0;
+            while (buf.hasRemaining()) {
+                doc += readVarint(buf);
+                int tf = readVarint(buf);
+                if (size + 2 > out.length) out = Arrays.copyOf(out, out.length * 2);
+                out[size++] = doc;
+                out[size++] = tf;
+            }
+            return Arrays.copyOf(out, size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+            channel = null;
+        }
+    }
+
+    // =================== IO ===================
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos);
+            if (r < 0) throw new EOFException();
+            pos += r;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (Segment s : segments) s.close();
+        docs.close();
+        idx.close();
+    }
+}
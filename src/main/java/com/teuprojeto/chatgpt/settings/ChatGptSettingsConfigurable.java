@@ -3,6 +3,7 @@ package com.teuprojeto.chatgpt.settings;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.ui.JBColor;
 import com.intellij.util.ui.JBUI;
+import com.teuprojeto.chatgpt.core.ModelRouter;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
 
@@ -16,6 +17,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
     private JTextArea apiKeyField;
     private JCheckBox useCtx;
     private JSpinner maxChars;
+    private JSpinner similarityPct;
+    private JSpinner skeletonTokens;
+    private JComboBox<String> selectionModel;
+    private JCheckBox allowTools;
+    private JCheckBox gzipRequests;
+    private JCheckBox shareAcross;
+    private JSpinner sharedRpm;
+    private JCheckBox inlineCompletion;
+    private JSpinner inlineDebounce;
+    private JSpinner inlineBudget;
     private JTextArea systemPromptArea;
 
     @Nls(capitalization = Nls.Capitalization.Title)
@@ -70,6 +81,89 @@ public class ChatGptSettingsConfigurable implements Configurable {
         mainPanel.add(ctxRow);
         mainPanel.add(Box.createVerticalStrut(12));
 
+        // ===== CACHE POR SEMELHANÇA =====
+        JLabel simLbl = new JLabel("Sugerir resposta anterior se o prompt for semelhante a pelo menos (%, 0 = nunca):");
+        simLbl.setToolTipText("Só na tool window, sem histórico; o texto fora dos blocos de código tem de ser igual");
+        similarityPct = new JSpinner(new SpinnerNumberModel(0, 0, 100, 1));
+
+        JPanel simRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        simRow.add(simLbl);
+        simRow.add(similarityPct);
+        fillWidth(simRow, simRow.getPreferredSize().height);
+
+        mainPanel.add(simRow);
+        mainPanel.add(Box.createVerticalStrut(12));
+
+        // ===== CONTEXTO DO FICHEIRO =====
+        JLabel skelLbl = new JLabel("Esqueleto do ficheiro enviado com a seleção (tokens, 0 = nenhum):");
+        skeletonTokens = new JSpinner(new SpinnerNumberModel(1500, 0, 20000, 250));
+
+        JPanel skelRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        skelRow.add(skelLbl);
+        skelRow.add(skeletonTokens);
+        fillWidth(skelRow, skelRow.getPreferredSize().height);
+
+        JLabel selModelLbl = new JLabel("Modelo para as ações sobre a seleção (auto = escolhido pela latência):");
+        selectionModel = new JComboBox<>(new String[]{"gpt-4o-mini", "gpt-4o", ModelRouter.AUTO});
+
+        JPanel selModelRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        selModelRow.add(selModelLbl);
+        selModelRow.add(selectionModel);
+        fillWidth(selModelRow, selModelRow.getPreferredSize().height);
+
+        mainPanel.add(skelRow);
+        mainPanel.add(Box.createVerticalStrut(6));
+        mainPanel.add(selModelRow);
+        mainPanel.add(Box.createVerticalStrut(12));
+
+        // ===== FERRAMENTAS =====
+        allowTools = new JCheckBox("Permitir que o ChatGPT abra ficheiros do projeto (tool calls, só com streaming)");
+        alignLeft(allowTools);
+
+        mainPanel.add(allowTools);
+        mainPanel.add(Box.createVerticalStrut(12));
+
+        // ===== REDE =====
+        gzipRequests = new JCheckBox("Comprimir pedidos grandes com gzip (volta a enviar sem compressão se o endpoint recusar)");
+        alignLeft(gzipRequests);
+
+        mainPanel.add(gzipRequests);
+        mainPanel.add(Box.createVerticalStrut(6));
+
+        shareAcross = new JCheckBox("Partilhar cache e limite de pedidos com outros IDEs abertos nesta máquina");
+        alignLeft(shareAcross);
+
+        sharedRpm = new JSpinner(new SpinnerNumberModel(60, 1, 10000, 10));
+
+        JPanel shareRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        shareRow.add(new JLabel("Pedidos por minuto (todos os IDEs, por API key):"));
+        shareRow.add(sharedRpm);
+        fillWidth(shareRow, shareRow.getPreferredSize().height);
+
+        mainPanel.add(shareAcross);
+        mainPanel.add(Box.createVerticalStrut(6));
+        mainPanel.add(shareRow);
+        mainPanel.add(Box.createVerticalStrut(12));
+
+        // ===== INLINE =====
+        inlineCompletion = new JCheckBox("Sugestões inline no editor (texto cinzento)");
+        alignLeft(inlineCompletion);
+
+        inlineDebounce = new JSpinner(new SpinnerNumberModel(250, 0, 2000, 50));
+        inlineBudget = new JSpinner(new SpinnerNumberModel(1200, 100, 10000, 100));
+
+        JPanel inlineRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        inlineRow.add(new JLabel("Espera (ms):"));
+        inlineRow.add(inlineDebounce);
+        inlineRow.add(new JLabel("Latência máxima (ms):"));
+        inlineRow.add(inlineBudget);
+        fillWidth(inlineRow, inlineRow.getPreferredSize().height);
+
+        mainPanel.add(inlineCompletion);
+        mainPanel.add(Box.createVerticalStrut(6));
+        mainPanel.add(inlineRow);
+        mainPanel.add(Box.createVerticalStrut(12));
+
         // ===== SYSTEM PROMPT =====
         JLabel spLbl = new JLabel("System prompt:");
         alignLeft(spLbl);
@@ -96,6 +190,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
         apiKeyField.setText(s.getApiKey());
         useCtx.setSelected(s.isUseContext());
         maxChars.setValue(s.getMaxContextChars());
+        similarityPct.setValue(s.getSimilarityThresholdPct());
+        skeletonTokens.setValue(s.getContextSkeletonTokens());
+        selectionModel.setSelectedItem(s.getSelectionModel());
+        allowTools.setSelected(s.isAllowTools());
+        gzipRequests.setSelected(s.isGzipRequests());
+        shareAcross.setSelected(s.isShareAcrossInstances());
+        sharedRpm.setValue(s.getSharedRequestsPerMinute());
+        inlineCompletion.setSelected(s.isInlineCompletion());
+        inlineDebounce.setValue(s.getInlineDebounceMs());
+        inlineBudget.setValue(s.getInlineBudgetMs());
         systemPromptArea.setText(s.getSystemPrompt());
 
         return mainPanel;
@@ -121,6 +225,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
         if (!apiKeyField.getText().equals(s.getApiKey())) return true;
         if (useCtx.isSelected() != s.isUseContext()) return true;
         if (!maxChars.getValue().equals(s.getMaxContextChars())) return true;
+        if (!similarityPct.getValue().equals(s.getSimilarityThresholdPct())) return true;
+        if (!skeletonTokens.getValue().equals(s.getContextSkeletonTokens())) return true;
+        if (!s.getSelectionModel().equals(selectionModel.getSelectedItem())) return true;
+        if (allowTools.isSelected() != s.isAllowTools()) return true;
+        if (gzipRequests.isSelected() != s.isGzipRequests()) return true;
+        if (shareAcross.isSelected() != s.isShareAcrossInstances()) return true;
+        if (!sharedRpm.getValue().equals(s.getSharedRequestsPerMinute())) return true;
+        if (inlineCompletion.isSelected() != s.isInlineCompletion()) return true;
+        if (!inlineDebounce.getValue().equals(s.getInlineDebounceMs())) return true;
+        if (!inlineBudget.getValue().equals(s.getInlineBudgetMs())) return true;
         return !systemPromptArea.getText().equals(s.getSystemPrompt());
     }
 
@@ -130,6 +244,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
         s.setApiKey(apiKeyField.getText());
         s.setUseContext(useCtx.isSelected());
         s.setMaxContextChars((Integer) maxChars.getValue());
+        s.setSimilarityThresholdPct((Integer) similarityPct.getValue());
+        s.setContextSkeletonTokens((Integer) skeletonTokens.getValue());
+        s.setSelectionModel((String) selectionModel.getSelectedItem());
+        s.setAllowTools(allowTools.isSelected());
+        s.setGzipRequests(gzipRequests.isSelected());
+        s.setShareAcrossInstances(shareAcross.isSelected());
+        s.setSharedRequestsPerMinute((Integer) sharedRpm.getValue());
+        s.setInlineCompletion(inlineCompletion.isSelected());
+        s.setInlineDebounceMs((Integer) inlineDebounce.getValue());
+        s.setInlineBudgetMs((Integer) inlineBudget.getValue());
         s.setSystemPrompt(systemPromptArea.getText());
     }
 
@@ -139,6 +263,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
         apiKeyField.setText(s.getApiKey());
         useCtx.setSelected(s.isUseContext());
         maxChars.setValue(s.getMaxContextChars());
+        similarityPct.setValue(s.getSimilarityThresholdPct());
+        skeletonTokens.setValue(s.getContextSkeletonTokens());
+        selectionModel.setSelectedItem(s.getSelectionModel());
+        allowTools.setSelected(s.isAllowTools());
+        gzipRequests.setSelected(s.isGzipRequests());
+        shareAcross.setSelected(s.isShareAcrossInstances());
+        sharedRpm.setValue(s.getSharedRequestsPerMinute());
+        inlineCompletion.setSelected(s.isInlineCompletion());
+        inlineDebounce.setValue(s.getInlineDebounceMs());
+        inlineBudget.setValue(s.getInlineBudgetMs());
         systemPromptArea.setText(s.getSystemPrompt());
     }
 
@@ -148,6 +282,16 @@ public class ChatGptSettingsConfigurable implements Configurable {
         apiKeyField = null;
         useCtx = null;
         maxChars = null;
+        similarityPct = null;
+        skeletonTokens = null;
+        selectionModel = null;
+        allowTools = null;
+        gzipRequests = null;
+        shareAcross = null;
+        sharedRpm = null;
+        inlineCompletion = null;
+        inlineDebounce = null;
+        inlineBudget = null;
         systemPromptArea = null;
     }
 }
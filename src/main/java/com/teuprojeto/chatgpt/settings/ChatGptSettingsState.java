@@ -7,6 +7,7 @@ import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.util.xmlb.annotations.Tag;
 import com.intellij.util.xmlb.annotations.XCollection;
+import com.teuprojeto.chatgpt.core.StartupBudget;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -19,9 +20,10 @@ public final class ChatGptSettingsState implements PersistentStateComponent<Chat
 
     public String apiKey = "";
 
-    // Histórico persistente (capado a MAX_HISTORY mensagens)
-    private static final int MAX_HISTORY = 200;
+    // Histórico persistente (capado a MAX_HISTORY mensagens, somando todos os ramos); vive no ChatHistoryStore
+    static final int MAX_HISTORY = 200;
 
+    // Só para migrar o histórico antigo do XML; fica sempre vazio depois do loadState
     @XCollection(propertyElementName = "history", elementName = "msg")
     public List<Message> history = new ArrayList<>();
 
@@ -37,28 +39,24 @@ public final class ChatGptSettingsState implements PersistentStateComponent<Chat
     public String getApiKey() { return apiKey; }
     public void setApiKey(String apiKey) { this.apiKey = apiKey != null ? apiKey.trim() : ""; }
 
-    public List<Message> getHistory() { return history; }
+    public List<Message> getHistory() { return ChatHistoryStore.getInstance().getHistory(); }
 
     public void clearHistory() {
-        history.clear();
+        ChatHistoryStore.getInstance().clear();
     }
 
-    public void addUser(String text) {
-        add("user", text);
+    /** Continua o ramo ativo; devolve o id da pergunta na árvore da conversa. */
+    public long addUser(String text) {
+        return ChatHistoryStore.getInstance().add("user", text);
     }
 
     public void addAssistant(String text) {
-        add("assistant", text);
+        ChatHistoryStore.getInstance().add("assistant", text);
     }
 
-    private void add(String role, String text) {
-        if (text == null) text = "";
-        history.add(new Message(role, text, System.currentTimeMillis()));
-        // Capar tamanho
-        if (history.size() > MAX_HISTORY) {
-            int drop = history.size() - MAX_HISTORY;
-            history.subList(0, drop).clear();
-        }
+    /** Resposta à pergunta {@code question}, mesmo que entretanto se tenha mudado de ramo. */
+    public void addAssistant(long question, String text) {
+        ChatHistoryStore.getInstance().add(question, "assistant", text);
     }
 
     // ===== PersistentStateComponent =====
@@ -70,9 +68,14 @@ public final class ChatGptSettingsState implements PersistentStateComponent<Chat
 
     @Override
     public void loadState(@NotNull ChatGptSettingsState state) {
+        StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.SETTINGS_LOAD);
         this.apiKey = state.apiKey;
         this.schemaVersion = state.schemaVersion;
-        this.history = (state.history != null) ? new ArrayList<>(state.history) : new ArrayList<>();
+        this.history = new ArrayList<>();
+        if (state.history != null && !state.history.isEmpty()) {
+            ChatHistoryStore.getInstance().importLegacy(new ArrayList<>(state.history)); // não lê o disco
+        }
+        mark.end();
     }
 
     // ===== DTO serializável =====
@@ -108,6 +111,53 @@ public final class ChatGptSettingsState implements PersistentStateComponent<Chat
     public int getMaxContextChars() { return maxContextChars; }
     public void setMaxContextChars(int v) { this.maxContextChars = Math.max(1000, v); }
 
+    public int similarityThresholdPct = 0;     // 0 = desligado; sugere respostas de prompts quase iguais (opt-in)
+
+    public int getSimilarityThresholdPct() { return similarityThresholdPct; }
+    public void setSimilarityThresholdPct(int v) { this.similarityThresholdPct = Math.max(0, Math.min(100, v)); }
+
+    public int contextSkeletonTokens = 1500;    // esqueleto do ficheiro enviado com a seleção; 0 = nenhum
+
+    public int getContextSkeletonTokens() { return contextSkeletonTokens; }
+    public void setContextSkeletonTokens(int v) { this.contextSkeletonTokens = Math.max(0, v); }
+
+    public String selectionModel = "gpt-4o-mini"; // ações sobre a seleção; "auto" = ModelRouter
+
+    public String getSelectionModel() { return selectionModel; }
+    public void setSelectionModel(String v) { this.selectionModel = (v == null || v.isBlank()) ? "gpt-4o-mini" : v; }
+
+    public boolean allowTools = false;          // o modelo pode pedir para abrir ficheiros (tool calls)
+
+    public boolean isAllowTools() { return allowTools; }
+    public void setAllowTools(boolean v) { this.allowTools = v; }
+
+    public boolean gzipRequests = false;        // comprimir o corpo dos pedidos grandes (se o endpoint aceitar)
+
+    public boolean isGzipRequests() { return gzipRequests; }
+    public void setGzipRequests(boolean v) { this.gzipRequests = v; }
+
+    public boolean shareAcrossInstances = false; // cache e limite de pedidos comuns a todos os IDEs abertos
+    public int sharedRequestsPerMinute = 60;     // limite partilhado, por API key
+
+    public boolean isShareAcrossInstances() { return shareAcrossInstances; }
+    public void setShareAcrossInstances(boolean v) { this.shareAcrossInstances = v; }
+
+    public int getSharedRequestsPerMinute() { return sharedRequestsPerMinute; }
+    public void setSharedRequestsPerMinute(int v) { this.sharedRequestsPerMinute = v; }
+
+    public boolean inlineCompletion = false;    // sugestões inline (texto cinzento) no editor
+    public int inlineDebounceMs = 250;          // espera após a última tecla
+    public int inlineBudgetMs = 1200;           // sugestões mais lentas são descartadas
+
+    public boolean isInlineCompletion() { return inlineCompletion; }
+    public void setInlineCompletion(boolean v) { this.inlineCompletion = v; }
+
+    public int getInlineDebounceMs() { return inlineDebounceMs; }
+    public void setInlineDebounceMs(int v) { this.inlineDebounceMs = Math.max(0, v); }
+
+    public int getInlineBudgetMs() { return inlineBudgetMs; }
+    public void setInlineBudgetMs(int v) { this.inlineBudgetMs = Math.max(100, v); }
+
     public String getSystemPrompt() { return systemPrompt; }
     public void setSystemPrompt(String sp) { this.systemPrompt = (sp == null || sp.isBlank())
             ? "Responde em português de Portugal e trata o utilizador por tu."
@@ -0,0 +1,426 @@
+package com.teuprojeto.chatgpt.settings;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.teuprojeto.chatgpt.core.ConversationTree;
+import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.StartupBudget;
+import com.teuprojeto.chatgpt.search.ConversationIndex;
+import com.teuprojeto.chatgpt.settings.ChatGptSettingsState.Message;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistência do histórico fora do XML das settings.
+ * O histórico é uma árvore ({@link ConversationTree}): editar uma pergunta antiga ou
+ * regenerar uma resposta abre um ramo novo, e a conversa à vista é o ramo ativo.
+ * As mutações só tocam na árvore em memória (lida sem locks) e numa fila; a escrita é feita numa
+ * thread de fundo (debounce), primeiro num journal append-only e, de tempos a
+ * tempos, num snapshot substituído atomicamente. Cada entrada do journal tem um
+ * número de sequência, por isso um crash entre o snapshot e o truncar do journal
+ * não duplica mensagens.
+ */
+@Service(Service.Level.APP)
+public final class ChatHistoryStore implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(ChatHistoryStore.class);
+
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int COMPACT_AFTER = 64; // entradas no journal até reescrever o snapshot
+
+    private final Path dir = Paths.get(PathManager.getConfigPath(), "chatgpt");
+    private final Path snapshotFile = dir.resolve("history.json");
+    private final Path journalFile = dir.resolve("history.journal");
+    private final Gson gson = new Gson();
+
+    private final Object lock = new Object();       // ordem das escritas (memória + journal); leitores não o usam
+    private final Object flushLock = new Object();  // serializa escritas em disco
+
+    private volatile ConversationTree history;      // carregado na 1.ª utilização; só publicado já cheio
+    private List<Message> legacy;                   // histórico do XML, importado ao carregar
+    private final List<JournalEntry> pending = new ArrayList<>();
+    private long seq;
+    private int journalEntries;
+    private ScheduledFuture<?> scheduled;
+    private boolean disposed;
+
+    public static ChatHistoryStore getInstance() {
+        return ApplicationManager.getApplication().getService(ChatHistoryStore.class);
+    }
+
+    // =================== API ===================
+
+    public List<Message> getHistory() {
+        return toMessages(view());
+    }
+
+    /**
+     * Vista imutável e consistente do ramo ativo, sem locks: pode ser lida noutra
+     * thread enquanto a conversa continua a crescer. {@code nodeId(i)} dá o id de cada
+     * mensagem na árvore.
+     */
+    public OpenAiHttp.HistoryView view() {
+        return loaded().branch();
+    }
+
+    /** A árvore toda (todos os ramos), imutável, para escolher ramos ou mensagens a editar. */
+    public ConversationTree.Shape tree() {
+        return loaded().shape();
+    }
+
+    public long estimatedBytes() {
+        return loaded().estimatedBytes();
+    }
+
+    /** Continua o ramo ativo; devolve o id da mensagem. */
+    public long add(String role, String text) {
+        synchronized (lock) {
+            return add(loaded().shape().head(), role, text);
+        }
+    }
+
+    /**
+     * Acrescenta debaixo de {@code parent} (ex.: a resposta à pergunta {@code parent}).
+     * O ramo ativo só avança se ainda terminar em {@code parent}.
+     */
+    public long add(long parent, String role, String text) {
+        Message m = new Message(role, text != null ? text : "", System.currentTimeMillis());
+        long id;
+        synchronized (lock) {
+            id = loaded().add(parent, m.role, m.text, m.timestamp, ChatGptSettingsState.MAX_HISTORY);
+            pending.add(JournalEntry.add(++seq, m, parent));
+        }
+        scheduleFlush();
+        ConversationIndex.getInstance().addAsync(m);
+        return id;
+    }
+
+    /**
+     * Passa a mostrar o ramo que termina em {@code nodeId} ({@link ConversationTree#NONE}
+     * = conversa vazia, para começar um ramo novo na raiz).
+     */
+    public void switchTo(long nodeId) {
+        synchronized (lock) {
+            ConversationTree t = loaded();
+            if (t.shape().head() == nodeId) return;
+            t.setHead(nodeId);
+            pending.add(JournalEntry.head(++seq, t.shape().head()));
+        }
+        scheduleFlush();
+    }
+
+    /** Limpa a conversa (todos os ramos) e o índice de pesquisa. */
+    public void clear() {
+        synchronized (lock) {
+            loaded().clear();
+            pending.add(JournalEntry.clear(++seq));
+        }
+        scheduleFlush();
+        ConversationIndex.getInstance().clearAsync();
+    }
+
+    /**
+     * Migração do histórico que antes vivia em ChatGptSettings.xml. Chamado no
+     * loadState das settings, por isso não lê o disco: só fica guardado até ao
+     * primeiro acesso ao histórico.
+     */
+    void importLegacy(List<Message> legacy) {
+        if (legacy == null || legacy.isEmpty()) return;
+        synchronized (lock) {
+            if (history == null) {
+                this.legacy = legacy;
+                return;
+            }
+            applyLegacy(history, legacy);
+        }
+        scheduleFlush();
+    }
+
+    private void applyLegacy(ConversationTree target, List<Message> legacy) {
+        if (target.shape().size() > 0) return;
+        for (Message m : legacy) {
+            long parent = target.shape().head();
+            target.add(parent, m.role, m.text, m.timestamp, ChatGptSettingsState.MAX_HISTORY);
+            pending.add(JournalEntry.add(++seq, m, parent));
+        }
+    }
+
+    private static List<Message> toMessages(OpenAiHttp.HistoryView v) {
+        List<Message> out = new ArrayList<>(v.size());
+        for (int i = 0; i < v.size(); i++) out.add(new Message(v.role(i), v.text(i), v.timestamp(i)));
+        return out;
+    }
+
+    // =================== Flush ===================
+
+    private void scheduleFlush() {
+        synchronized (lock) {
+            if (scheduled != null && !scheduled.isDone()) return;
+            scheduled = AppExecutorUtil.getAppScheduledExecutorService()
+                    .schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        synchronized (flushLock) {
+            List<JournalEntry> drained;
+            ConversationTree.Shape snapshot = null;
+            long snapshotSeq = 0;
+            synchronized (lock) {
+                if (pending.isEmpty()) return;
+                drained = new ArrayList<>(pending);
+                pending.clear();
+                journalEntries += drained.size();
+                boolean cleared = drained.stream().anyMatch(j -> JournalEntry.CLEAR.equals(j.op));
+                if (journalEntries >= COMPACT_AFTER || cleared) {
+                    snapshot = history.shape(); // O(1); tirado com o lock só para bater certo com seq
+                    snapshotSeq = seq;
+                    journalEntries = 0;
+                }
+            }
+            try {
+                Files.createDirectories(dir);
+                if (snapshot != null) {
+                    // descomprimir/serializar fica fora do lock
+                    writeSnapshot(Snapshot.of(snapshotSeq, snapshot));
+                    Files.deleteIfExists(journalFile);
+                } else {
+                    appendJournal(drained);
+                }
+            } catch (IOException e) {
+                LOG.warn("Falha a gravar histórico do ChatGPT", e);
+                synchronized (lock) {
+                    pending.addAll(0, drained); // tenta de novo no próximo flush
+                }
+            }
+            // o que chegou durante a escrita não agendou nada (este flush ainda contava como
+            // agendado): volta a agendar aqui, senão ficava à espera da próxima mensagem
+            synchronized (lock) {
+                if (!pending.isEmpty() && !disposed) {
+                    scheduled = AppExecutorUtil.getAppScheduledExecutorService()
+                            .schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private void appendJournal(List<JournalEntry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (JournalEntry j : entries) sb.append(gson.toJson(j)).append('\n');
+        try (FileChannel ch = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        Path tmp = dir.resolve("history.json.tmp");
+        try (FileChannel ch = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = Channels.newWriter(ch, StandardCharsets.UTF_8);
+            gson.toJson(snapshot, w);
+            w.flush();
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // =================== Load ===================
+
+    private ConversationTree loaded() {
+        ConversationTree h = history;
+        if (h != null) return h;
+        synchronized (lock) {
+            if (history == null) load();
+            return history;
+        }
+    }
+
+    // chamado com o lock
+    private void load() {
+        StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.HISTORY_LOAD);
+        ConversationTree h = new ConversationTree();
+        long lastSeq = 0;
+        try {
+            if (Files.exists(snapshotFile)) {
+                try (BufferedReader r = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+                    Snapshot s = gson.fromJson(r, Snapshot.class);
+                    if (s != null && s.messages != null) {
+                        h = s.restore();
+                        lastSeq = s.seq;
+                    }
+                }
+            }
+            if (Files.exists(journalFile)) {
+                // lido em bytes para saber onde acaba a última linha boa (o journal é curto:
+                // é compactado a cada COMPACT_AFTER entradas)
+                byte[] data = Files.readAllBytes(journalFile);
+                int pos = 0;
+                int good = 0; // fim da última linha válida
+                while (pos < data.length) {
+                    int nl = pos;
+                    while (nl < data.length && data[nl] != '\n') nl++;
+                    String line = new String(data, pos, nl - pos, StandardCharsets.UTF_8);
+                    int next = Math.min(nl + 1, data.length);
+                    if (!line.isBlank()) {
+                        JournalEntry j;
+                        try {
+                            j = gson.fromJson(line, JournalEntry.class);
+                        } catch (JsonParseException torn) {
+                            break; // última linha cortada por um crash
+                        }
+                        if (j != null && j.seq > lastSeq) {
+                            if (JournalEntry.CLEAR.equals(j.op)) {
+                                h.clear();
+                            } else if (JournalEntry.HEAD.equals(j.op)) {
+                                h.setHead(j.head != null ? j.head : ConversationTree.NONE);
+                            } else if (j.msg != null) {
+                                // entradas antigas (histórico linear) não têm pai: continuam o ramo
+                                long parent = j.parent != null ? j.parent : h.shape().head();
+                                h.add(parent, j.msg.role, j.msg.text, j.msg.timestamp, ChatGptSettingsState.MAX_HISTORY);
+                            }
+                            lastSeq = j.seq;
+                            journalEntries++;
+                        }
+                    }
+                    good = next;
+                    pos = next;
+                }
+                repairJournalTail(data, good);
+            }
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Histórico do ChatGPT ilegível; a começar vazio", e);
+        }
+        seq = lastSeq;
+        if (legacy != null) {
+            applyLegacy(h, legacy);
+            legacy = null;
+            scheduleFlush();
+        }
+        history = h;
+        mark.end();
+    }
+
+    /**
+     * Corta o que vem depois da última linha válida (e garante o '\n' final), senão o
+     * próximo APPEND ficava colado à linha cortada e perdia-se também na leitura seguinte.
+     */
+    private void repairJournalTail(byte[] data, int good) {
+        boolean torn = good < data.length;
+        boolean unterminated = good > 0 && data[good - 1] != '\n';
+        if (!torn && !unterminated) return;
+        try (FileChannel ch = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            ch.truncate(good);
+            if (unterminated) ch.write(ByteBuffer.wrap(new byte[]{'\n'}), good);
+            ch.force(false);
+            if (torn) LOG.info("Journal do histórico cortado; " + (data.length - good) + " bytes descartados");
+        } catch (IOException e) {
+            LOG.warn("Falha a reparar o journal do histórico do ChatGPT", e);
+        }
+    }
+
+    // =================== Shutdown ===================
+
+    @Override
+    public void dispose() {
+        synchronized (lock) {
+            disposed = true;
+            if (scheduled != null) scheduled.cancel(false);
+        }
+        flush();
+    }
+
+    // =================== Formato em disco ===================
+
+    // Snapshots antigos só têm "messages" (uma conversa linear)
+    private static final class Snapshot {
+        long seq;
+        List<Message> messages;  // todos os nós, por ordem de id
+        Long firstId;
+        long[] parents;
+        Long head;
+
+        static Snapshot of(long seq, ConversationTree.Shape tree) {
+            Snapshot s = new Snapshot();
+            s.seq = seq;
+            s.messages = toMessages(tree.nodes());
+            s.firstId = tree.firstId();
+            s.parents = new long[tree.size()];
+            for (int i = 0; i < s.parents.length; i++) s.parents[i] = tree.parent(tree.firstId() + i);
+            s.head = tree.head();
+            return s;
+        }
+
+        ConversationTree restore() {
+            long first = firstId != null ? firstId : 0;
+            ConversationTree t = new ConversationTree(first);
+            boolean tree = parents != null && parents.length == messages.size();
+            for (int i = 0; i < messages.size(); i++) {
+                Message m = messages.get(i);
+                long parent = tree ? parents[i] : first + i - 1;
+                t.add(parent, m.role, m.text, m.timestamp, ChatGptSettingsState.MAX_HISTORY);
+            }
+            if (head != null) t.setHead(head);
+            return t;
+        }
+    }
+
+    private static final class JournalEntry {
+        static final String ADD = "add";
+        static final String CLEAR = "clear";
+        static final String HEAD = "head";
+
+        long seq;
+        String op;
+        Message msg;
+        Long parent;  // add: pai na árvore (-1 = raiz)
+        Long head;    // head: último nó do ramo ativo
+
+        static JournalEntry add(long seq, Message m, long parent) {
+            JournalEntry j = new JournalEntry();
+            j.seq = seq;
+            j.op = ADD;
+            j.msg = m;
+            j.parent = parent;
+            return j;
+        }
+
+        static JournalEntry head(long seq, long head) {
+            JournalEntry j = new JournalEntry();
+            j.seq = seq;
+            j.op = HEAD;
+            j.head = head;
+            return j;
+        }
+
+        static JournalEntry clear(long seq) {
+            JournalEntry j = new JournalEntry();
+            j.seq = seq;
+            j.op = CLEAR;
+            return j;
+        }
+    }
+}
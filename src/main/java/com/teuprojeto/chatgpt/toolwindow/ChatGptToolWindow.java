@@ -5,13 +5,26 @@ import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogBuilder;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
 import com.intellij.ui.JBColor;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.SimpleListCellRenderer;
 import com.intellij.ui.components.*;
 import com.intellij.util.ui.JBUI;
+import com.teuprojeto.chatgpt.core.ConversationTree;
+import com.teuprojeto.chatgpt.core.ModelRouter;
 import com.teuprojeto.chatgpt.core.OpenAiHttp;
+import com.teuprojeto.chatgpt.core.RequestScheduler;
+import com.teuprojeto.chatgpt.core.SharedCoordinator;
+import com.teuprojeto.chatgpt.core.SimilarityCache;
+import com.teuprojeto.chatgpt.core.StartupBudget;
+import com.teuprojeto.chatgpt.local.LocalIntentRouter;
+import com.teuprojeto.chatgpt.search.ConversationIndex;
 import com.teuprojeto.chatgpt.settings.ChatGptSettingsState;
-import com.teuprojeto.chatgpt.settings.ChatGptSettingsState.Message;
+import com.teuprojeto.chatgpt.settings.ChatHistoryStore;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
@@ -22,17 +35,30 @@ import java.awt.event.ComponentEvent;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class ChatGptToolWindow extends SimpleToolWindowPanel {
 
+    private static final double TEMPERATURE = 0.7;
+
     private final Project project;
 
-    private final JBTextArea conversationArea = new JBTextArea();
+    private final JTextPane conversationArea = new JTextPane();
+    private final MarkdownStreamRenderer renderer;
     private final JBTextArea promptField = new JBTextArea(); // input multi-linha
-    private final JComboBox<String> modelBox = new JComboBox<>(new String[]{"gpt-4o-mini", "gpt-4o"});
+    private final JComboBox<String> modelBox = new JComboBox<>(new String[]{"gpt-4o-mini", "gpt-4o", ModelRouter.AUTO});
     private final JBCheckBox streamCheck = new JBCheckBox("Streaming", true);
+    private final SearchTextField searchField = new SearchTextField(false);
+    private final JBLabel editLabel = new JBLabel();
+    private final JButton sendBtn = new JButton("Send");
+
+    // ramos: pai da pergunta a ser editada (o envio abre um ramo novo ali) e pedidos em curso;
+    // só mexidos no EDT
+    private static final long NO_EDIT = Long.MIN_VALUE;
+    private long editParent = NO_EDIT;
+    private int inFlight;
 
     // holders para auto-resize
     private JBScrollPane inputScroll;
@@ -46,10 +72,9 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
         super(true, true);
         this.project = project;
 
-        // Área de conversa
+        // Área de conversa (markdown renderizado incrementalmente)
         conversationArea.setEditable(false);
-        conversationArea.setLineWrap(true);
-        conversationArea.setWrapStyleWord(true);
+        renderer = new MarkdownStreamRenderer(project, conversationArea);
 
         // INPUT multi-linha com wrap
         promptField.setLineWrap(true);
@@ -78,12 +103,25 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
         inputWrapper.setPreferredSize(new Dimension(Integer.MAX_VALUE, minInputHeight));
         inputWrapper.setMaximumSize(new Dimension(Integer.MAX_VALUE, maxInputHeight));
 
-        JButton sendBtn = new JButton("Send");
         JButton clearBtn = new JButton("Limpar");
         clearBtn.addActionListener(e -> {
-            conversationArea.setText("");
+            // a resposta em curso ficava sem pergunta e ia parar à raiz da conversa limpa
+            if (busy()) return;
+            cancelEdit();
+            renderer.clear();
             ChatGptSettingsState.getInstance().clearHistory(); // limpa persistido
+            // respostas guardadas em texto na cache partilhada entre IDEs (escrita de ~4 MB)
+            ApplicationManager.getApplication().executeOnPooledThread(() -> SharedCoordinator.getInstance().clearCache());
         });
+        JButton editBtn = new JButton("Editar…");
+        editBtn.setToolTipText("Editar uma pergunta anterior; ao enviar abre um ramo novo");
+        editBtn.addActionListener(e -> chooseQuestionToEdit(editBtn));
+        JButton regenBtn = new JButton("Regenerar");
+        regenBtn.setToolTipText("Pedir outra resposta à última pergunta (fica como ramo alternativo)");
+        regenBtn.addActionListener(e -> regenerate());
+        JButton branchesBtn = new JButton("Ramos…");
+        branchesBtn.setToolTipText("Mudar para outro ramo da conversa");
+        branchesBtn.addActionListener(e -> chooseBranch(branchesBtn));
 
         // linha 2: model + streaming + botões
         JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
@@ -92,14 +130,34 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
         controls.add(streamCheck);
         controls.add(sendBtn);
         controls.add(clearBtn);
+        controls.add(editBtn);
+        controls.add(regenBtn);
+        controls.add(branchesBtn);
         controls.setAlignmentX(Component.LEFT_ALIGNMENT);
 
-        // topo em 2 linhas (input em cima, controlos em baixo)
+        editLabel.setForeground(JBColor.GRAY);
+        editLabel.setVisible(false);
+        editLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        // pesquisa no histórico (inclui mensagens que já saíram do limite da conversa; o "Limpar" apaga tudo)
+        searchField.getTextEditor().getEmptyText().setText("Pesquisar no histórico...");
+        searchField.addKeyboardListener(new java.awt.event.KeyAdapter() {
+            @Override public void keyPressed(java.awt.event.KeyEvent e) {
+                if (e.getKeyCode() == java.awt.event.KeyEvent.VK_ENTER) searchHistory();
+            }
+        });
+        searchField.setAlignmentX(Component.LEFT_ALIGNMENT);
+        searchField.setMaximumSize(new Dimension(Integer.MAX_VALUE, searchField.getPreferredSize().height));
+
+        // topo: pesquisa, input e controlos
         JPanel top = new JPanel();
         top.setLayout(new BoxLayout(top, BoxLayout.Y_AXIS));
+        top.add(searchField);
+        top.add(Box.createVerticalStrut(6));
         top.add(inputWrapper);
         top.add(Box.createVerticalStrut(6));
         top.add(controls);
+        top.add(editLabel);
 
         JBScrollPane scroll = new JBScrollPane(conversationArea);
 
@@ -126,6 +184,18 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
             }
         });
 
+        // Esc => desistir da edição de uma pergunta anterior
+        promptField.getInputMap(JComponent.WHEN_FOCUSED)
+                .put(KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_ESCAPE, 0), "cancelEdit");
+        promptField.getActionMap().put("cancelEdit", new AbstractAction() {
+            @Override public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (editParent == NO_EDIT) return;
+                cancelEdit();
+                promptField.setText("");
+                autoResizeInput();
+            }
+        });
+
         // Auto-resize quando o utilizador escreve
         promptField.getDocument().addDocumentListener(new DocumentListener() {
             @Override public void insertUpdate(DocumentEvent e) { autoResizeInput(); }
@@ -139,32 +209,213 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
             @Override public void componentShown(ComponentEvent e)    { autoResizeInput(); }
         });
 
-        // Carregar histórico persistente e focar input
+        // Focar input já; o histórico persistente é lido numa thread de fundo
         ApplicationManager.getApplication().invokeLater(() -> {
-            renderPersistedHistory();
             autoResizeInput();
             promptField.requestFocusInWindow();
         });
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<Turn> history = turns(ChatHistoryStore.getInstance().tree());
+            ApplicationManager.getApplication().invokeLater(() -> renderPersistedHistory(history));
+        });
+    }
+
+    /** Uma mensagem do ramo ativo já descodificada, com a posição entre as alternativas ("2/3"). */
+    private record Turn(String role, String text, long timestamp, String alternative) {}
+
+    private static List<Turn> turns(ConversationTree.Shape tree) {
+        OpenAiHttp.HistoryView branch = tree.branch();
+        List<Turn> out = new ArrayList<>(branch.size());
+        for (int i = 0; i < branch.size(); i++) {
+            List<Long> siblings = tree.siblings(branch.nodeId(i));
+            String alt = siblings.size() > 1 ? " [" + (siblings.indexOf(branch.nodeId(i)) + 1) + "/" + siblings.size() + "]" : "";
+            out.add(new Turn(branch.role(i), branch.text(i), branch.timestamp(i), alt));
+        }
+        return out;
     }
 
-    private void renderPersistedHistory() {
-        List<Message> history = ChatGptSettingsState.getInstance().getHistory();
+    private void renderPersistedHistory(List<Turn> history) {
         if (history.isEmpty()) return;
+        // se o utilizador já enviou algo entretanto, não apaga a conversa em curso
+        if (conversationArea.getDocument().getLength() > 0) return;
+
+        StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.HISTORY_RENDER);
+        render(history);
+        mark.end();
+    }
+
+    // Mostra o ramo ativo (depois de mudar de ramo, editar ou regenerar)
+    private void renderBranch() {
+        render(turns(ChatHistoryStore.getInstance().tree()));
+    }
 
+    private void render(List<Turn> history) {
         DateTimeFormatter fmtTime = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
-        conversationArea.setText("");
-        for (Message m : history) {
+        renderer.clear();
+        for (int i = 0; i < history.size(); i++) {
+            Turn m = history.get(i);
             String ts = fmtTime.format(Instant.ofEpochMilli(m.timestamp));
             if ("user".equalsIgnoreCase(m.role)) {
-                conversationArea.append("You (" + ts + "): " + m.text + "\n");
-                conversationArea.append("Assistant: ");
+                renderer.appendPlain("You (" + ts + ")" + m.alternative + ": " + m.text + "\n");
+                String answerAlt = i + 1 < history.size() ? history.get(i + 1).alternative : "";
+                renderer.appendPlain("Assistant" + answerAlt + ": ");
             } else {
-                conversationArea.append(m.text + "\n\n");
+                renderer.appendMarkdown(m.text);
+                renderer.appendPlain("\n\n");
             }
         }
         conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
     }
 
+    // =================== Ramos ===================
+
+    private boolean busy() {
+        if (inFlight == 0) return false;
+        notifyUi("Espera pela resposta em curso antes de enviar, mudar ou limpar a conversa.", NotificationType.INFORMATION);
+        return true;
+    }
+
+    private void cancelEdit() {
+        editParent = NO_EDIT;
+        editLabel.setVisible(false);
+    }
+
+    // Escolher uma pergunta do ramo ativo: o texto vai para o input e o envio abre um ramo
+    // novo a partir da mensagem anterior a ela (o que vinha antes é partilhado, não copiado)
+    private void chooseQuestionToEdit(JComponent anchor) {
+        if (busy()) return;
+        ConversationTree.Shape tree = ChatHistoryStore.getInstance().tree();
+        OpenAiHttp.HistoryView branch = tree.branch();
+        List<Long> questions = new ArrayList<>();
+        for (int i = branch.size() - 1; i >= 0; i--) {
+            if ("user".equalsIgnoreCase(branch.role(i))) questions.add(branch.nodeId(i));
+        }
+        if (questions.isEmpty()) {
+            notifyUi("Ainda não há perguntas para editar.", NotificationType.INFORMATION);
+            return;
+        }
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+        JBPopupFactory.getInstance()
+                .createPopupChooserBuilder(questions)
+                .setTitle("Editar pergunta")
+                .setRenderer(SimpleListCellRenderer.<Long>create((label, id, index) ->
+                        label.setText(fmt.format(Instant.ofEpochMilli(tree.timestamp(id))) + ": " + snippet(tree.text(id)))))
+                .setItemChosenCallback(id -> {
+                    editParent = tree.parent(id);
+                    editLabel.setText("A editar a pergunta das " + fmt.format(Instant.ofEpochMilli(tree.timestamp(id)))
+                            + ": ao enviar abre um ramo novo (Esc cancela)");
+                    editLabel.setVisible(true);
+                    promptField.setText(tree.text(id));
+                    autoResizeInput();
+                    promptField.requestFocusInWindow();
+                })
+                .createPopup()
+                .showUnderneathOf(anchor);
+    }
+
+    // Outra resposta à última pergunta do ramo; a anterior fica como alternativa
+    private void regenerate() {
+        if (busy()) return;
+        String apiKey = ChatGptSettingsState.getInstance().getApiKey();
+        if (apiKey == null || apiKey.isBlank()) {
+            notifyUi("Define a API key em Settings → Tools → ChatGPT.", NotificationType.WARNING);
+            return;
+        }
+        ConversationTree.Shape tree = ChatHistoryStore.getInstance().tree();
+        OpenAiHttp.HistoryView branch = tree.branch();
+        int q = branch.size() - 1;
+        while (q >= 0 && !"user".equalsIgnoreCase(branch.role(q))) q--;
+        if (q < 0) {
+            notifyUi("Ainda não há pergunta para regenerar.", NotificationType.INFORMATION);
+            return;
+        }
+        long question = branch.nodeId(q);
+        String prompt = branch.text(q);
+        cancelEdit();
+        ChatHistoryStore.getInstance().switchTo(question);
+        renderBranch(); // termina em "Assistant: "
+        renderer.begin();
+        OpenAiHttp.HistoryView ctx = ChatGptSettingsState.getInstance().isUseContext()
+                ? tree.branch(tree.parent(question)) : OpenAiHttp.HistoryView.EMPTY;
+        request(apiKey, prompt, ctx, question, false); // sem cache: quer-se outra resposta
+    }
+
+    private void chooseBranch(JComponent anchor) {
+        if (busy()) return;
+        ConversationTree.Shape tree = ChatHistoryStore.getInstance().tree();
+        List<Long> leaves = tree.leaves();
+        if (leaves.size() < 2) {
+            notifyUi("A conversa ainda não tem outros ramos.", NotificationType.INFORMATION);
+            return;
+        }
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd/MM HH:mm").withZone(ZoneId.systemDefault());
+        JBPopupFactory.getInstance()
+                .createPopupChooserBuilder(leaves)
+                .setTitle(leaves.size() + " ramos")
+                .setRenderer(SimpleListCellRenderer.<Long>create((label, leaf, index) -> {
+                    OpenAiHttp.HistoryView b = tree.branch(leaf);
+                    int q = b.size() - 1;
+                    while (q > 0 && !"user".equalsIgnoreCase(b.role(q))) q--;
+                    label.setText(fmt.format(Instant.ofEpochMilli(tree.timestamp(leaf))) + " · " + b.size() + " mensagens · "
+                            + snippet(b.size() > 0 ? b.text(q) : "") + (leaf == tree.head() ? "  (atual)" : ""));
+                }))
+                .setItemChosenCallback(leaf -> {
+                    cancelEdit();
+                    ChatHistoryStore.getInstance().switchTo(leaf);
+                    renderBranch();
+                })
+                .createPopup()
+                .showUnderneathOf(anchor);
+    }
+
+    private static String snippet(String text) {
+        String s = text.replaceAll("\\s+", " ");
+        return s.length() > 100 ? s.substring(0, 100) + "…" : s;
+    }
+
+    private void searchHistory() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) return;
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            long t0 = System.nanoTime();
+            List<ConversationIndex.Hit> hits = ConversationIndex.getInstance().search(query, 50);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            ApplicationManager.getApplication().invokeLater(() -> showSearchHits(query, hits, ms));
+        });
+    }
+
+    private void showSearchHits(String query, List<ConversationIndex.Hit> hits, long ms) {
+        if (hits.isEmpty()) {
+            notifyUi("Sem resultados para \"" + query + "\".", NotificationType.INFORMATION);
+            return;
+        }
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd/MM HH:mm").withZone(ZoneId.systemDefault());
+        JBPopupFactory.getInstance()
+                .createPopupChooserBuilder(hits)
+                .setTitle(hits.size() + " resultados (" + ms + " ms)")
+                .setRenderer(SimpleListCellRenderer.<ConversationIndex.Hit>create((label, h, index) -> {
+                    String who = "assistant".equals(h.role) ? "Assistant" : "You";
+                    String snippet = h.text.replaceAll("\\s+", " ");
+                    if (snippet.length() > 120) snippet = snippet.substring(0, 120) + "…";
+                    label.setText(who + " (" + fmt.format(Instant.ofEpochMilli(h.timestamp)) + "): " + snippet);
+                }))
+                .setItemChosenCallback(h -> {
+                    JBTextArea area = new JBTextArea(h.text);
+                    area.setEditable(false);
+                    area.setLineWrap(true);
+                    area.setWrapStyleWord(true);
+                    JBScrollPane sp = new JBScrollPane(area);
+                    sp.setPreferredSize(new Dimension(JBUI.scale(600), JBUI.scale(400)));
+                    DialogBuilder db = new DialogBuilder(project);
+                    db.setTitle(fmt.format(Instant.ofEpochMilli(h.timestamp)));
+                    db.setCenterPanel(sp);
+                    db.addOkAction();
+                    db.show();
+                })
+                .createPopup()
+                .showUnderneathOf(searchField);
+    }
+
     private void send() {
         String apiKey = ChatGptSettingsState.getInstance().getApiKey();
         if (apiKey == null || apiKey.isBlank()) {
@@ -173,113 +424,241 @@ public class ChatGptToolWindow extends SimpleToolWindowPanel {
         }
         String prompt = promptField.getText().trim();
         if (prompt.isEmpty()) return;
-
-        // Respostas locais: data/hora (evita respostas desatualizadas da API)
-        String p = prompt.toLowerCase().trim();
-        if (p.matches(".*\\b(que dia é hoje|que dia e hoje|data de hoje|hoje que dia|data atual)\\b.*")) {
-            java.time.ZoneId zone = java.time.ZoneId.systemDefault();
-            java.time.LocalDate d = java.time.LocalDate.now(zone);
-            java.time.format.DateTimeFormatter fmt =
-                    java.time.format.DateTimeFormatter.ofPattern("EEEE, d 'de' MMMM 'de' uuuu", new java.util.Locale("pt","PT"));
-            appendUser(prompt);
-            appendAssistant(d.format(fmt));
-            promptField.setText("");
-            autoResizeInput();
-            return;
+        // uma pergunta nova passava a head da árvore e a resposta em curso ia parar a um
+        // ramo lateral (e as duas escreviam no mesmo renderer)
+        if (busy()) return;
+
+        // pergunta editada: o ramo novo começa na mensagem anterior à original
+        if (editParent != NO_EDIT) {
+            ChatHistoryStore.getInstance().switchTo(editParent);
+            cancelEdit();
+            renderBranch();
         }
-        if (p.matches(".*\\b(que horas são|que horas sao|hora atual|agora que horas)\\b.*")) {
-            java.time.ZoneId zone = java.time.ZoneId.systemDefault();
-            java.time.LocalTime t = java.time.LocalTime.now(zone).withSecond(0).withNano(0);
-            java.time.format.DateTimeFormatter fmt =
-                    java.time.format.DateTimeFormatter.ofPattern("HH:mm", new java.util.Locale("pt","PT"));
-            appendUser(prompt);
-            appendAssistant(t.format(fmt));
+
+        // Respostas locais (data/hora, conversões, regex, factos do projeto) sem ir à rede
+        String local = LocalIntentRouter.route(prompt, project);
+        if (local != null) {
+            long question = appendUser(prompt);
+            appendAssistant(question, local);
             promptField.setText("");
             autoResizeInput();
             return;
         }
 
-        String model = (String) modelBox.getSelectedItem();
-        boolean streaming = streamCheck.isSelected();
+        // vista do histórico antes de guardar o prompt (senão ia em duplicado no pedido);
+        // só referências, o texto é descodificado ao montar o pedido
+        final OpenAiHttp.HistoryView ctxFinal = ChatGptSettingsState.getInstance().isUseContext()
+                ? ChatHistoryStore.getInstance().view() : OpenAiHttp.HistoryView.EMPTY;
 
-        appendUser(prompt);
+        long question = appendUser(prompt);
         promptField.setText("");
         autoResizeInput();
+        request(apiKey, prompt, ctxFinal, question, true);
+    }
+
+    // Pede a resposta a {@code prompt}, já guardado como {@code question}; a resposta fica
+    // debaixo dessa pergunta na árvore
+    private void request(String apiKey, String prompt, OpenAiHttp.HistoryView ctxFinal, long question, boolean useCache) {
+        String selectedModel = (String) modelBox.getSelectedItem();
+        boolean streaming = streamCheck.isSelected();
 
         // ====== Settings para contexto e system prompt ======
         ChatGptSettingsState st = ChatGptSettingsState.getInstance();
-        final boolean useCtx = st.isUseContext();
         final int maxChars = st.getMaxContextChars();
         final String sysPrompt = st.getSystemPrompt();
+        final String model = ModelRouter.resolve(selectedModel, prompt, contextChars(ctxFinal, maxChars));
+
+        Pending pending = new Pending(question);
+        // Cache por semelhança (opt-in): só para perguntas sem histórico, e só como sugestão
+        int similarityPct = st.getSimilarityThresholdPct();
+        boolean similar = useCache && similarityPct > 0 && ctxFinal.size() == 0;
+        if (!similar) {
+            dispatch(apiKey, prompt, ctxFinal, pending, useCache, model, streaming, false);
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            String previous = SimilarityCache.getInstance()
+                    .lookup(model, sysPrompt, TEMPERATURE, prompt, similarityPct / 100.0);
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (previous != null && acceptSimilar(previous)) {
+                    pending.end();
+                    appendAssistant(question, previous);
+                } else {
+                    dispatch(apiKey, prompt, ctxFinal, pending, useCache, model, streaming, true);
+                }
+            });
+        });
+    }
+
+    private boolean acceptSimilar(String previous) {
+        return Messages.showYesNoDialog(project,
+                "Já tenho uma resposta para uma pergunta muito parecida:\n\n" + snippet(previous)
+                        + "\n\nUsar essa resposta em vez de perguntar de novo?",
+                "ChatGPT: Resposta Parecida", "Usar", "Perguntar", Messages.getQuestionIcon()) == Messages.YES;
+    }
 
-        // constrói ctx só se for para usar contexto
-        final List<OpenAiHttp.HistoryMsg> ctxFinal =
-                useCtx
-                        ? st.getHistory().stream()
-                        .map(m -> new OpenAiHttp.HistoryMsg(
-                                "assistant".equalsIgnoreCase(m.role) ? "assistant" : "user",
-                                m.text == null ? "" : m.text))
-                        .collect(Collectors.toList())
-                        : java.util.Collections.emptyList();
-
-        if (streaming) {
+    // Faz o pedido; com {@code similar}, a resposta completa fica na cache por semelhança
+    private void dispatch(String apiKey, String prompt, OpenAiHttp.HistoryView ctxFinal, Pending pending,
+                          boolean useCache, String model, boolean streaming, boolean similar) {
+        ChatGptSettingsState st = ChatGptSettingsState.getInstance();
+        final int maxChars = st.getMaxContextChars();
+        final String sysPrompt = st.getSystemPrompt();
+        if (streaming && st.isAllowTools()) {
+            final StringBuilder accFinal = new StringBuilder();
+            final boolean[] finished = {false}; // só lido/escrito no EDT
+            Consumer<String> toUi = text -> ApplicationManager.getApplication().invokeLater(() -> {
+                if (finished[0]) renderer.appendPlain(text.trim() + "\n");
+                else appendAssistantDelta(accFinal, text);
+            });
+            // avisos das ferramentas ("a abrir ...") só se mostram: não são resposta do modelo,
+            // por isso não se gravam nem voltam a ir como contexto
+            Consumer<String> toNote = text -> ApplicationManager.getApplication().invokeLater(() -> {
+                if (finished[0]) {
+                    renderer.appendPlain(text.trim() + "\n");
+                } else {
+                    renderer.appendDelta(text);
+                    conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
+                }
+            });
+            ToolDispatcher tools = new ToolDispatcher(project, toUi, toNote, () ->
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        finished[0] = true;
+                        appendAssistantDone(pending, accFinal);
+                    }));
+            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                try {
+                    RequestScheduler.run(RequestScheduler.Lane.INTERACTIVE, project::isDisposed, () ->
+                            OpenAiHttp.streamStructured(apiKey, model, ctxFinal, prompt, TEMPERATURE, sysPrompt, maxChars,
+                                    ToolDispatcher.TOOLS, tools, project::isDisposed));
+                } catch (Exception ex) {
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        pending.end();
+                        notifyUi("Erro: " + ex.getMessage(), NotificationType.ERROR);
+                    });
+                }
+            });
+        } else if (streaming) {
             final StringBuilder accFinal = new StringBuilder();
             ApplicationManager.getApplication().executeOnPooledThread(() -> {
                 try {
-                    OpenAiHttp.chatStreamWithHistory(
-                            apiKey, model, ctxFinal, prompt, 0.7,
-                            (java.util.function.Consumer<String>) (delta ->
-                                    ApplicationManager.getApplication().invokeLater(() -> appendAssistantDelta(accFinal, delta))
-                            ),
-                            (Runnable) () ->
-                                    ApplicationManager.getApplication().invokeLater(() -> appendAssistantDone(accFinal)),
-                            sysPrompt, maxChars
-                    );
+                    boolean complete = RequestScheduler.call(RequestScheduler.Lane.INTERACTIVE, project::isDisposed, () ->
+                            OpenAiHttp.chatStreamWithHistory(
+                                    apiKey, model, ctxFinal, prompt, TEMPERATURE,
+                                    (java.util.function.Consumer<String>) (delta ->
+                                            ApplicationManager.getApplication().invokeLater(() -> appendAssistantDelta(accFinal, delta))
+                                    ),
+                                    (Runnable) () ->
+                                            ApplicationManager.getApplication().invokeLater(() -> appendAssistantDone(pending, accFinal)),
+                                    sysPrompt, maxChars, useCache
+                            ));
+                    // o onDone já correu; o acc só é escrito no EDT, por isso lê-se lá
+                    if (complete && similar) {
+                        ApplicationManager.getApplication().invokeLater(() ->
+                                rememberSimilar(model, sysPrompt, prompt, accFinal.toString()));
+                    }
                 } catch (Exception ex) {
-                    ApplicationManager.getApplication().invokeLater(() ->
-                            notifyUi("Erro: " + ex.getMessage(), NotificationType.ERROR));
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        pending.end();
+                        notifyUi("Erro: " + ex.getMessage(), NotificationType.ERROR);
+                    });
                 }
             });
         } else {
             ApplicationManager.getApplication().executeOnPooledThread(() -> {
                 try {
-                    String answer = OpenAiHttp.chatWithHistory(
-                            apiKey, model, ctxFinal, prompt, 0.7, sysPrompt, maxChars
-                    );
-                    ApplicationManager.getApplication().invokeLater(() -> appendAssistant(answer));
+                    String answer = RequestScheduler.call(RequestScheduler.Lane.INTERACTIVE, project::isDisposed, () ->
+                            OpenAiHttp.chatWithHistory(apiKey, model, ctxFinal, prompt, TEMPERATURE, sysPrompt, maxChars, useCache));
+                    if (similar) rememberSimilar(model, sysPrompt, prompt, answer);
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        pending.end();
+                        appendAssistant(pending.question, answer);
+                    });
                 } catch (Exception ex) {
-                    ApplicationManager.getApplication().invokeLater(() ->
-                            notifyUi("Erro: " + ex.getMessage(), NotificationType.ERROR));
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        pending.end();
+                        notifyUi("Erro: " + ex.getMessage(), NotificationType.ERROR);
+                    });
                 }
             });
         }
     }
 
-    private void appendUser(String text) {
-        ChatGptSettingsState.getInstance().addUser(text);
-        conversationArea.append("You: " + text + "\n");
-        conversationArea.append("Assistant: ");
+    private static void rememberSimilar(String model, String sysPrompt, String prompt, String answer) {
+        ApplicationManager.getApplication().executeOnPooledThread(() ->
+                SimilarityCache.getInstance().store(model, sysPrompt, TEMPERATURE, prompt, answer));
+    }
+
+    // o que o pedido vai levar do histórico, no máximo
+    private static int contextChars(OpenAiHttp.HistoryView view, int maxChars) {
+        long total = 0;
+        for (int i = view.size() - 1; i >= 0 && total < maxChars; i--) total += view.length(i);
+        return (int) Math.min(total, maxChars);
+    }
+
+    private long appendUser(String text) {
+        long question = ChatGptSettingsState.getInstance().addUser(text);
+        renderer.appendPlain("You: " + text + "\n");
+        renderer.appendPlain("Assistant: ");
+        renderer.begin();
         conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
+        return question;
     }
 
-    private void appendAssistant(String text) {
-        ChatGptSettingsState.getInstance().addAssistant(text);
-        conversationArea.append(text + "\n\n");
+    private void appendAssistant(long question, String text) {
+        save(question, text);
+        renderer.appendMarkdown(text);
+        renderer.appendPlain("\n\n");
         conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
     }
 
     private void appendAssistantDelta(StringBuilder acc, String delta) {
         acc.append(delta);
-        conversationArea.append(delta);
+        renderer.appendDelta(delta);
         conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
     }
 
-    private void appendAssistantDone(StringBuilder acc) {
-        ChatGptSettingsState.getInstance().addAssistant(acc.toString());
-        conversationArea.append("\n\n");
+    private void appendAssistantDone(Pending pending, StringBuilder acc) {
+        pending.end();
+        save(pending.question, acc.toString());
+        renderer.finish();
+        renderer.appendPlain("\n\n");
         conversationArea.setCaretPosition(conversationArea.getDocument().getLength());
     }
 
+    // a pergunta pode já não existir (saiu pelo limite do histórico): a resposta não vira raiz.
+    // Uma resposta vazia (ex.: cancelada antes do texto) não se grava: ia como contexto em todos os pedidos
+    private static void save(long question, String text) {
+        if (text.isBlank() || !ChatHistoryStore.getInstance().tree().contains(question)) return;
+        ChatGptSettingsState.getInstance().addAssistant(question, text);
+    }
+
+    // Um pedido em curso (só no EDT). No streaming com erro a meio o onDone e o catch
+    // podem ambos terminar o mesmo pedido: só o primeiro conta.
+    private final class Pending {
+        final long question;
+        private boolean ended;
+
+        Pending(long question) {
+            this.question = question;
+            inFlight++;
+            updateSendEnabled();
+        }
+
+        void end() {
+            if (ended) return;
+            ended = true;
+            inFlight--;
+            updateSendEnabled();
+        }
+    }
+
+    // Send e Ctrl+Enter só com nenhum pedido em curso
+    private void updateSendEnabled() {
+        sendBtn.setEnabled(inFlight == 0);
+        Action send = promptField.getActionMap().get("send");
+        if (send != null) send.setEnabled(inFlight == 0);
+    }
+
     private void autoResizeInput() {
         int availWidth = inputWrapper.getWidth() > 0
                 ? inputWrapper.getWidth() - JBUI.scale(12)
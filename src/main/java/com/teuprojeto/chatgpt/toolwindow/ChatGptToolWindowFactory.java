@@ -5,14 +5,21 @@ import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import com.teuprojeto.chatgpt.core.StartupBudget;
 import org.jetbrains.annotations.NotNull;
 
+/**
+ * Só é chamada quando a tool window é mostrada pela primeira vez (a plataforma
+ * reabre-a no arranque se estava aberta); o histórico é lido depois, fora do EDT.
+ */
 public class ChatGptToolWindowFactory implements ToolWindowFactory {
 
     @Override
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        StartupBudget.Mark mark = StartupBudget.begin(StartupBudget.Phase.TOOLWINDOW_BUILD);
         ChatGptToolWindow panel = new ChatGptToolWindow(project);
         Content content = ContentFactory.getInstance().createContent(panel, "", false);
         toolWindow.getContentManager().addContent(content);
+        mark.end();
     }
 }
@@ -0,0 +1,346 @@
+package com.teuprojeto.chatgpt.toolwindow;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.ui.JBColor;
+
+import javax.swing.*;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renderer incremental de markdown para respostas em streaming.
+ * Linhas completas ficam congeladas no documento. Na linha aberta (a última, ainda
+ * sem '\n') um delta sem {@code *} nem {@code `} só é acrescentado ao fim, porque não
+ * muda o que já estava renderizado; os outros re-renderizam a linha. Blocos ``` fechados são
+ * coloridos depois, fora do EDT, com o lexer do IntelliJ da linguagem indicada.
+ */
+final class MarkdownStreamRenderer {
+
+    private static final Map<String, String> LANG_ALIASES = Map.ofEntries(
+            Map.entry("kotlin", "kt"),
+            Map.entry("python", "py"),
+            Map.entry("javascript", "js"),
+            Map.entry("typescript", "ts"),
+            Map.entry("shell", "sh"),
+            Map.entry("bash", "sh"),
+            Map.entry("yaml", "yml"),
+            Map.entry("markdown", "md"),
+            Map.entry("csharp", "cs"),
+            Map.entry("c#", "cs"),
+            Map.entry("c++", "cpp"),
+            Map.entry("rust", "rs"),
+            Map.entry("golang", "go"),
+            Map.entry("ruby", "rb")
+    );
+
+    private final Project project;
+    private final StyledDocument doc;
+
+    private final SimpleAttributeSet plain = new SimpleAttributeSet();
+    private final SimpleAttributeSet bold = new SimpleAttributeSet();
+    private final SimpleAttributeSet italic = new SimpleAttributeSet();
+    private final SimpleAttributeSet heading = new SimpleAttributeSet();
+    private final SimpleAttributeSet code = new SimpleAttributeSet();
+    private final SimpleAttributeSet fence = new SimpleAttributeSet();
+
+    // linha aberta (ainda sem '\n') e onde começa no documento
+    private final StringBuilder openLine = new StringBuilder();
+    private int openStart = -1;
+
+    // estado do bloco ``` corrente
+    private boolean inFence;
+    private String fenceLang = "";
+    private int fenceStart;
+    private final StringBuilder fenceText = new StringBuilder();
+
+    // invalida highlights pendentes quando o documento é limpo
+    private int generation;
+
+    MarkdownStreamRenderer(Project project, JTextPane pane) {
+        this.project = project;
+        this.doc = pane.getStyledDocument();
+
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        StyleConstants.setBold(bold, true);
+        StyleConstants.setItalic(italic, true);
+        StyleConstants.setBold(heading, true);
+        StyleConstants.setFontSize(heading, pane.getFont().getSize() + 2);
+        StyleConstants.setFontFamily(code, scheme.getEditorFontName());
+        StyleConstants.setBackground(code, JBColor.namedColor("EditorPane.inactiveBackground", new JBColor(0xF2F2F2, 0x2B2D30)));
+        fence.addAttributes(code);
+        StyleConstants.setForeground(fence, JBColor.GRAY);
+    }
+
+    // =================== API ===================
+
+    /** Limpa o documento e descarta highlights ainda por aplicar. */
+    void clear() {
+        generation++;
+        resetBlockState();
+        try {
+            doc.remove(0, doc.getLength());
+        } catch (BadLocationException ignore) { }
+    }
+
+    /** Texto sem markdown (ex.: "You: ..."). */
+    void appendPlain(String text) {
+        insert(doc.getLength(), text, plain);
+    }
+
+    /** Início de uma resposta do assistente. */
+    void begin() {
+        resetBlockState();
+        openStart = doc.getLength();
+    }
+
+    void appendDelta(String delta) {
+        if (openStart < 0) begin();
+        int from = 0;
+        int nl;
+        while ((nl = delta.indexOf('\n', from)) >= 0) {
+            openLine.append(delta, from, nl);
+            freezeOpenLine(true);
+            from = nl + 1;
+        }
+        if (from == delta.length()) return;
+        String tail = delta.substring(from);
+        AttributeSet attrs = appendAttrs(tail);
+        openLine.append(tail);
+        if (attrs != null) insert(doc.getLength(), tail, attrs);
+        else renderOpenLine();
+    }
+
+    /** Fim da resposta: congela a última linha e fecha um ``` que tenha ficado aberto. */
+    void finish() {
+        if (openStart < 0) return;
+        if (openLine.length() > 0) freezeOpenLine(false);
+        if (inFence) closeFence(doc.getLength());
+        resetBlockState();
+    }
+
+    /** Resposta completa de uma vez (histórico persistido / modo sem streaming). */
+    void appendMarkdown(String text) {
+        begin();
+        appendDelta(text);
+        finish();
+    }
+
+    // =================== Linhas ===================
+
+    private void resetBlockState() {
+        openLine.setLength(0);
+        openStart = -1;
+        inFence = false;
+        fenceLang = "";
+        fenceText.setLength(0);
+    }
+
+    private void renderOpenLine() {
+        removeTail();
+        if (inFence) {
+            insert(openStart, openLine.toString(), code);
+        } else {
+            renderInline(openLine.toString());
+        }
+    }
+
+    // Estilo com que {@code tail} pode ir direto para o fim da linha aberta, ou null se a
+    // linha tem de ser re-renderizada: traz marcas inline, ou o início da linha (heading,
+    // lista) ainda não está decidido.
+    private AttributeSet appendAttrs(String tail) {
+        if (inFence) return code;
+        if (tail.indexOf('*') >= 0 || tail.indexOf('`') >= 0) return null;
+        int lead = 0;
+        while (lead < openLine.length() && Character.isWhitespace(openLine.charAt(lead))) lead++;
+        // o início chega para decidir: "###### " ou "- " (sem copiar a linha toda a cada delta)
+        String start = openLine.substring(lead, Math.min(openLine.length(), lead + 8));
+        if (start.isEmpty()) return null;
+        if (start.charAt(0) == '#') {
+            // "##" ainda pode vir a ser heading ou não; headings (curtos) vão aparados, re-renderizam-se
+            if (lead + start.length() == openLine.length() && start.chars().allMatch(ch -> ch == '#')) return null;
+            return headingLevel(start) > 0 ? null : plain;
+        }
+        return start.length() >= 2 ? plain : null;
+    }
+
+    private void freezeOpenLine(boolean withNewline) {
+        removeTail();
+        String line = openLine.toString();
+        String nl = withNewline ? "\n" : "";
+
+        if (line.trim().startsWith("```")) {
+            insert(openStart, line + nl, fence);
+            if (inFence) {
+                closeFence(openStart);
+            } else {
+                inFence = true;
+                fenceLang = line.trim().substring(3).trim();
+                fenceText.setLength(0);
+                fenceStart = doc.getLength();
+            }
+        } else if (inFence) {
+            insert(openStart, line + nl, code);
+            fenceText.append(line).append(nl);
+        } else {
+            renderInline(line);
+            insert(doc.getLength(), nl, plain);
+        }
+
+        openLine.setLength(0);
+        openStart = doc.getLength();
+    }
+
+    private void removeTail() {
+        try {
+            doc.remove(openStart, doc.getLength() - openStart);
+        } catch (BadLocationException ignore) { }
+    }
+
+    // Headings, listas, **negrito**, *itálico* e `código` — tudo dentro de uma linha.
+    private void renderInline(String line) {
+        String trimmed = line.stripLeading();
+        int level = headingLevel(trimmed);
+        if (level > 0) {
+            insert(doc.getLength(), trimmed.substring(level).trim(), heading);
+            return;
+        }
+        if (trimmed.startsWith("- ") || trimmed.startsWith("* ")) {
+            insert(doc.getLength(), line.substring(0, line.length() - trimmed.length()) + "• ", plain);
+            line = trimmed.substring(2);
+        }
+
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            int end;
+            if (c == '`' && (end = line.indexOf('`', i + 1)) > i) {
+                flush(run);
+                insert(doc.getLength(), line.substring(i + 1, end), code);
+                i = end + 1;
+            } else if (line.startsWith("**", i) && (end = closing(line, i, "**")) > 0) {
+                flush(run);
+                insert(doc.getLength(), line.substring(i + 2, end), bold);
+                i = end + 2;
+            } else if (c == '*' && (end = closing(line, i, "*")) > 0) {
+                flush(run);
+                insert(doc.getLength(), line.substring(i + 1, end), italic);
+                i = end + 1;
+            } else {
+                run.append(c);
+                i++;
+            }
+        }
+        flush(run);
+    }
+
+    // Nível do heading (1-6), ou 0 se a linha não é heading
+    private static int headingLevel(String trimmed) {
+        int level = 0;
+        while (level < trimmed.length() && trimmed.charAt(level) == '#') level++;
+        if (level == 0 || level > 6) return 0;
+        return level == trimmed.length() || trimmed.charAt(level) == ' ' ? level : 0;
+    }
+
+    // Fecho de {@code marker} aberto em {@code open}, ou -1. Como no CommonMark, a seguir
+    // à abertura e antes do fecho tem de haver um não-espaço: "2 * 3 * 4" fica como está.
+    private static int closing(String line, int open, String marker) {
+        int from = open + marker.length();
+        if (from >= line.length()) return -1;
+        char first = line.charAt(from);
+        if (Character.isWhitespace(first) || first == '*') return -1;
+        int end = line.indexOf(marker, from + 1);
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) end = line.indexOf(marker, end + 1);
+        return end;
+    }
+
+    private void flush(StringBuilder run) {
+        if (run.length() == 0) return;
+        insert(doc.getLength(), run.toString(), plain);
+        run.setLength(0);
+    }
+
+    private void insert(int offset, String text, AttributeSet attrs) {
+        if (text.isEmpty()) return;
+        try {
+            doc.insertString(offset, text, attrs);
+        } catch (BadLocationException ignore) { }
+    }
+
+    // =================== Highlight de código ===================
+
+    private void closeFence(int fenceEnd) {
+        inFence = false;
+        String codeText = fenceText.toString();
+        if (fenceEnd - fenceStart == codeText.length() && !codeText.isBlank()) {
+            highlightLater(fenceStart, codeText, fenceLang);
+        }
+        fenceText.setLength(0);
+    }
+
+    private void highlightLater(int start, String codeText, String lang) {
+        final int gen = generation;
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<Object[]> spans = ApplicationManager.getApplication().runReadAction(
+                    (com.intellij.openapi.util.Computable<List<Object[]>>) () -> lex(codeText, lang));
+            if (spans.isEmpty()) return;
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (gen != generation) return;
+                for (Object[] s : spans) {
+                    SimpleAttributeSet a = new SimpleAttributeSet();
+                    StyleConstants.setForeground(a, (Color) s[2]);
+                    doc.setCharacterAttributes(start + (int) s[0], (int) s[1], a, false);
+                }
+            });
+        });
+    }
+
+    // devolve [offset, length, cor] para cada token com cor definida no esquema atual
+    private List<Object[]> lex(String codeText, String lang) {
+        List<Object[]> spans = new ArrayList<>();
+        if (project.isDisposed()) return spans;
+        FileType ft = fileTypeFor(lang);
+        if (ft == PlainTextFileType.INSTANCE) return spans;
+        SyntaxHighlighter hl = SyntaxHighlighterFactory.getSyntaxHighlighter(ft, project, null);
+        if (hl == null) return spans;
+
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        Lexer lexer = hl.getHighlightingLexer();
+        lexer.start(codeText);
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null) {
+            Color fg = null;
+            for (TextAttributesKey key : hl.getTokenHighlights(type)) {
+                TextAttributes ta = scheme.getAttributes(key);
+                if (ta != null && ta.getForegroundColor() != null) fg = ta.getForegroundColor();
+            }
+            if (fg != null) {
+                spans.add(new Object[]{lexer.getTokenStart(), lexer.getTokenEnd() - lexer.getTokenStart(), fg});
+            }
+            lexer.advance();
+        }
+        return spans;
+    }
+
+    private static FileType fileTypeFor(String lang) {
+        if (lang == null || lang.isBlank()) return PlainTextFileType.INSTANCE;
+        String key = lang.toLowerCase().split("\\s+")[0];
+        String ext = LANG_ALIASES.getOrDefault(key, key);
+        return FileTypeManager.getInstance().getFileTypeByExtension(ext);
+    }
+}
@@ -0,0 +1,196 @@
+package com.teuprojeto.chatgpt.toolwindow;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.teuprojeto.chatgpt.core.OpenAiHttp;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Executa as tool calls do modelo enquanto a resposta ainda está a chegar: o
+ * ficheiro do {@code open_file} abre assim que o campo {@code path} fica completo,
+ * e a linha é aplicada quando chegar. Só ficheiros do conteúdo do projeto. O que
+ * aconteceu (aberto / não encontrado) volta ao modelo como resultado da tool call.
+ */
+final class ToolDispatcher implements OpenAiHttp.StructuredListener {
+
+    private static final Logger LOG = Logger.getInstance(ToolDispatcher.class);
+    private static final long RESULT_TIMEOUT_SECONDS = 10;
+
+    static final JsonArray TOOLS = JsonParser.parseString("""
+            [{"type": "function", "function": {
+                "name": "open_file",
+                "description": "Abre um ficheiro do projeto do utilizador no editor, opcionalmente numa linha.",
+                "parameters": {"type": "object", "properties": {
+                    "path": {"type": "string", "description": "Caminho relativo à raiz do projeto, ou só o nome do ficheiro"},
+                    "line": {"type": "integer", "description": "Linha (1 = primeira)"}},
+                  "required": ["path"]}}}]
+            """).getAsJsonArray();
+
+    // escrito na thread do stream e lido no EDT
+    private static final class Call {
+        volatile String name;
+        volatile VirtualFile file;
+        volatile int line = -1;
+        volatile boolean opening;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+    }
+
+    private final Project project;
+    private final Consumer<String> onContent;
+    private final Consumer<String> onNote;
+    private final Runnable onDone;
+    private final Map<Integer, Call> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param onContent texto normal da resposta
+     * @param onNote    aviso curto para mostrar na conversa (markdown)
+     */
+    ToolDispatcher(Project project, Consumer<String> onContent, Consumer<String> onNote, Runnable onDone) {
+        this.project = project;
+        this.onContent = onContent;
+        this.onNote = onNote;
+        this.onDone = onDone;
+    }
+
+    @Override
+    public void onContent(String delta) {
+        onContent.accept(delta);
+    }
+
+    @Override
+    public void onToolCall(int index, String name) {
+        Call c = new Call();
+        c.name = name;
+        calls.put(index, c);
+    }
+
+    @Override
+    public void onToolField(int index, String path, Object value) {
+        Call c = calls.get(index);
+        if (c == null || !"open_file".equals(c.name)) return;
+        if ("path".equals(path) && value instanceof String p && !c.opening) {
+            c.opening = true;
+            openAsync(c, p);
+        } else if ("line".equals(path) && value instanceof BigDecimal n) {
+            c.line = Math.max(0, n.intValue() - 1);
+            navigate(c);
+        }
+    }
+
+    @Override
+    public void onToolCallEnd(int index) {
+        Call c = calls.get(index);
+        if (c == null) return;
+        if (!"open_file".equals(c.name)) {
+            onNote.accept("\n_(ferramenta desconhecida: " + c.name + ")_\n");
+            c.result.complete("Erro: ferramenta desconhecida '" + c.name + "'.");
+        } else if (!c.opening) {
+            c.result.complete("Erro: falta o argumento \"path\".");
+        }
+    }
+
+    @Override
+    public String toolResult(int index) {
+        Call c = calls.get(index);
+        if (c == null) return "Erro: tool call desconhecida.";
+        // argumentos inválidos/cortados: o onToolCallEnd nunca chegou
+        if (!c.opening) c.result.complete("Erro: argumentos inválidos.");
+        try {
+            return c.result.get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return "Sem resultado: o ficheiro ainda não tinha aberto.";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Cancelado.";
+        } catch (ExecutionException e) {
+            return "Erro: " + e.getCause().getMessage();
+        }
+    }
+
+    @Override
+    public void onDone() {
+        onDone.run();
+    }
+
+    // resolver o caminho pode precisar dos índices; fica fora da thread do stream
+    private void openAsync(Call c, String path) {
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            VirtualFile vf;
+            try {
+                vf = ReadAction.nonBlocking(() -> resolve(path)).inSmartMode(project).executeSynchronously();
+            } catch (RuntimeException e) {
+                LOG.debug("open_file: falha a resolver " + path, e);
+                vf = null;
+            }
+            if (vf == null) {
+                onNote.accept("\n_(ficheiro não encontrado no projeto: `" + path + "`)_\n");
+                c.result.complete("Ficheiro não encontrado no projeto: " + path);
+                return;
+            }
+            onNote.accept("\n_(a abrir `" + path + "`)_\n");
+            VirtualFile file = vf;
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (project.isDisposed()) {
+                    c.result.complete("Cancelado.");
+                    return;
+                }
+                c.file = file;
+                if (c.line >= 0) navigate(c);
+                else FileEditorManager.getInstance(project).openFile(file, true);
+                c.result.complete("Aberto no editor: " + projectPath(file));
+            });
+        });
+    }
+
+    private void navigate(Call c) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (c.file == null || project.isDisposed()) return; // ainda a abrir; openAsync trata da linha
+            new OpenFileDescriptor(project, c.file, c.line, 0).navigate(true);
+        });
+    }
+
+    private String projectPath(VirtualFile file) {
+        String base = project.getBasePath();
+        String p = file.getPath();
+        return base != null && p.startsWith(base + "/") ? p.substring(base.length() + 1) : p;
+    }
+
+    private VirtualFile resolve(String path) {
+        ProjectFileIndex index = ProjectFileIndex.getInstance(project);
+        String base = project.getBasePath();
+        String rel = path.replace('\\', '/');
+        VirtualFile vf = base != null ? LocalFileSystem.getInstance().findFileByPath(base + "/" + rel) : null;
+        if (vf == null && rel.startsWith("/")) vf = LocalFileSystem.getInstance().findFileByPath(rel);
+        if (vf != null && !vf.isDirectory() && index.isInContent(vf)) return vf;
+
+        // só o nome (ou caminho errado): procura pelo nome e prefere o que termina no caminho dado
+        String name = rel.substring(rel.lastIndexOf('/') + 1);
+        Collection<VirtualFile> found = FilenameIndex.getVirtualFilesByName(name, GlobalSearchScope.projectScope(project));
+        VirtualFile best = null;
+        for (VirtualFile f : found) {
+            if (f.getPath().endsWith("/" + rel)) return f;
+            if (best == null) best = f;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,89 @@
+package com.teuprojeto.chatgpt.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Memória real (heap depois de GC) de 10 000 mensagens sintéticas guardadas como
+ * objetos com {@code String} — o formato antigo — e no {@link CompactMessageStore}.
+ * Também confirma que {@code estimatedBytes()}, mostrado nas estatísticas, anda
+ * perto do que o heap mede.
+ */
+class CompactMessageStoreFootprintTest {
+
+    private static final int N = 10_000;
+
+    // o que o histórico guardava antes: um objeto por mensagem com o texto em String
+    private record Message(String role, String text, long timestamp) {}
+
+    @Test
+    void compactStoreUsesLessHeapThanStrings() {
+        String[] texts = texts(N);
+
+        long base = usedHeap();
+        List<Message> strings = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) {
+            // cópia: uma String nova não partilha o array do texto de origem
+            String text = String.valueOf(texts[i].toCharArray());
+            strings.add(new Message(i % 2 == 0 ? "user" : "assistant", text, i));
+        }
+        long stringBytes = usedHeap() - base;
+        assertEquals(N, strings.size()); // mantém a lista viva até aqui
+        strings = null;
+
+        base = usedHeap();
+        CompactMessageStore store = new CompactMessageStore();
+        for (int i = 0; i < N; i++) store.add(i % 2 == 0 ? "user" : "assistant", texts[i], i);
+        long compactBytes = usedHeap() - base;
+        assertEquals(N, store.size());
+
+        assertTrue(stringBytes > 0 && compactBytes > 0, "medição do heap sem efeito");
+        assertTrue(compactBytes < stringBytes / 2, String.format(
+                "%d mensagens: %d KB como String vs %d KB compactas (%.1fx)",
+                N, stringBytes / 1024, compactBytes / 1024, (double) stringBytes / Math.max(1, compactBytes)));
+        long estimate = store.estimatedBytes();
+        assertTrue(estimate > compactBytes / 2 && estimate < compactBytes * 2,
+                "estimatedBytes() = " + estimate + " longe do medido " + compactBytes);
+    }
+
+    // Mistura de perguntas curtas e respostas longas, com vocabulário de código
+    private static String[] texts(int n) {
+        Random rnd = new Random(42);
+        String[] words = {"classe", "método", "lista", "mapa", "stream", "gradle", "erro", "ação", "exceção",
+                "public", "static", "void", "return", "new", "ArrayList<>()", "{", "}", ";", "if", "for"};
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            int len = (i % 2 == 0) ? 20 + rnd.nextInt(60) : 100 + rnd.nextInt(500);
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < len; w++) sb.append(words[rnd.nextInt(words.length)]).append(w % 12 == 11 ? '\n' : ' ');
+            out[i] = sb.toString();
+        }
+        return out;
+    }
+
+    // Heap usado depois de GC, repetido até estabilizar
+    private static long usedHeap() {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        long prev = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long used = mem.getHeapMemoryUsage().getUsed();
+            if (Math.abs(prev - used) < 16 * 1024) return used;
+            prev = used;
+        }
+        return prev;
+    }
+}
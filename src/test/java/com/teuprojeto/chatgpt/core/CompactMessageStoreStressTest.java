@@ -0,0 +1,120 @@
+package com.teuprojeto.chatgpt.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Vários escritores e leitores ao mesmo tempo: cada snapshot tem de ser uma janela
+ * contígua das mensagens (sem buracos nem repetidas por escritor), nunca acima do
+ * limite, e o texto tem de sobreviver à compressão dos segmentos frios.
+ */
+class CompactMessageStoreStressTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int PER_WRITER = 2_000;
+    private static final int CAP = 200;
+
+    @Test
+    void concurrentWritersAndReadersSeeContiguousCappedSnapshots() throws Exception {
+        CompactMessageStore store = new CompactMessageStore();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong snapshots = new AtomicLong();
+        TestThreads threads = new TestThreads();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(threads.start(() -> {
+                start.await();
+                for (int k = 0; k < PER_WRITER; k++) {
+                    store.add(k % 2 == 0 ? "user" : "assistant", text(writer, k), stamp(writer, k), CAP);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(threads.start(() -> {
+                start.await();
+                while (writing.get()) {
+                    checkWindow(store.snapshot());
+                    snapshots.incrementAndGet();
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Thread t : writers) t.join();
+        writing.set(false);
+        for (Thread t : readers) t.join();
+
+        threads.failOnError();
+        assertTrue(snapshots.get() > 0, "os leitores não chegaram a ler");
+
+        OpenAiHttp.HistoryView last = store.snapshot();
+        assertEquals(CAP, last.size());
+        int[] next = checkWindow(last);
+        // no fim a janela tem de acabar na última mensagem de cada escritor que lá aparece
+        for (int w = 0; w < WRITERS; w++) {
+            if (next[w] >= 0) assertEquals(PER_WRITER, next[w], "escritor " + w);
+        }
+    }
+
+    @Test
+    void snapshotStaysValidAfterLaterMutations() {
+        CompactMessageStore store = new CompactMessageStore();
+        for (int k = 0; k < 5 * CompactMessageStore.SEGMENT; k++) store.add("user", text(0, k), stamp(0, k));
+        OpenAiHttp.HistoryView before = store.snapshot();
+        String[] texts = new String[before.size()];
+        for (int i = 0; i < texts.length; i++) texts[i] = before.text(i);
+
+        store.removeFirst(CompactMessageStore.SEGMENT + 3);
+        for (int k = 0; k < 3 * CompactMessageStore.SEGMENT; k++) store.add("assistant", "x" + k, k);
+        store.clear();
+
+        assertEquals(texts.length, before.size());
+        for (int i = 0; i < texts.length; i++) assertEquals(texts[i], before.text(i));
+        assertEquals(0, store.size());
+    }
+
+    // Devolve, por escritor, o k seguinte ao último visto (-1 se não aparece)
+    private static int[] checkWindow(OpenAiHttp.HistoryView v) {
+        int n = v.size();
+        assertTrue(n <= CAP, "snapshot com " + n + " mensagens, acima do limite " + CAP);
+        int[] next = new int[WRITERS];
+        Arrays.fill(next, -1);
+        for (int i = 0; i < n; i++) {
+            String text = v.text(i);
+            int sep = text.indexOf(':');
+            int writer = Integer.parseInt(text.substring(1, sep));
+            int k = Integer.parseInt(text.substring(sep + 1, text.indexOf('|')));
+            assertEquals(text(writer, k), text, "texto corrompido na posição " + i);
+            assertEquals(stamp(writer, k), v.timestamp(i), "timestamp trocado na posição " + i);
+            assertEquals(k % 2 == 0 ? "user" : "assistant", v.role(i));
+            assertEquals(text.length(), v.length(i));
+            if (next[writer] >= 0) {
+                assertEquals(next[writer], k, "buraco ou repetição do escritor " + writer + " na posição " + i);
+            }
+            next[writer] = k + 1;
+        }
+        return next;
+    }
+
+    // Textos acima do mínimo de compressão, com tamanhos diferentes
+    private static String text(int writer, int k) {
+        return "w" + writer + ":" + k + "|" + "olá mundo ".repeat(30 + k % 17);
+    }
+
+    private static long stamp(int writer, int k) {
+        return (long) writer * PER_WRITER + k;
+    }
+}
@@ -0,0 +1,79 @@
+package com.teuprojeto.chatgpt.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A árvore que o ChatHistoryStore tem em memória: cada escritor vai acrescentando o
+ * seu próprio ramo enquanto os leitores percorrem o estado publicado. Cada ramo lido
+ * tem de ser uma sequência contígua de um só escritor e o total nunca passa do limite.
+ */
+class ConversationTreeStressTest {
+
+    private static final int WRITERS = 4;
+    private static final int PER_WRITER = 1_000;
+    private static final int CAP = 200;
+
+    @Test
+    void readersSeeWholeBranchesWhileWritersGrowThem() throws Exception {
+        ConversationTree tree = new ConversationTree();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        TestThreads threads = new TestThreads();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(threads.start(() -> {
+                start.await();
+                long parent = ConversationTree.NONE;
+                for (int k = 0; k < PER_WRITER; k++) {
+                    parent = tree.add(parent, "user", writer + ":" + k, k, CAP);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(threads.start(() -> {
+                start.await();
+                while (writing.get()) checkBranches(tree.shape());
+            }));
+        }
+
+        start.countDown();
+        for (Thread t : writers) t.join();
+        writing.set(false);
+        for (Thread t : readers) t.join();
+
+        threads.failOnError();
+        ConversationTree.Shape last = tree.shape();
+        assertEquals(CAP, last.size());
+        assertEquals((long) WRITERS * PER_WRITER, last.nextId());
+        checkBranches(last);
+    }
+
+    private static void checkBranches(ConversationTree.Shape s) {
+        assertTrue(s.size() <= CAP, "árvore com " + s.size() + " nós, acima do limite " + CAP);
+        for (long leaf : s.leaves()) {
+            OpenAiHttp.HistoryView b = s.branch(leaf);
+            assertTrue(b.size() > 0);
+            String writer = null;
+            int prev = -1;
+            for (int i = 0; i < b.size(); i++) {
+                String[] parts = b.text(i).split(":");
+                if (writer == null) writer = parts[0];
+                assertEquals(writer, parts[0], "ramo com mensagens de dois escritores");
+                int k = Integer.parseInt(parts[1]);
+                if (prev >= 0) assertEquals(prev + 1, k, "buraco no ramo do escritor " + writer);
+                prev = k;
+                if (i > 0) assertTrue(b.nodeId(i) > b.nodeId(i - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.teuprojeto.chatgpt.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * O parser recebe o JSON em fragmentos arbitrários (como chegam os argumentos das
+ * tool calls): o resultado tem de ser o mesmo qualquer que seja o corte.
+ */
+class JsonStreamParserTest {
+
+    // eventos por ordem: "caminho=valor" para primitivos, "caminho{}"/"caminho[]" no fim de contentores
+    private static final class Recorder implements JsonStreamParser.Handler {
+        final List<String> events = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+
+        @Override
+        public void onValue(String path, Object value) {
+            events.add(path + "=" + value);
+            values.add(value);
+        }
+
+        @Override
+        public void onEnd(String path, boolean array) {
+            events.add(path + (array ? "[]" : "{}"));
+        }
+    }
+
+    private static Recorder parse(String... chunks) {
+        Recorder r = new Recorder();
+        JsonStreamParser p = new JsonStreamParser(r);
+        for (String c : chunks) p.feed(c);
+        p.finish();
+        assertNull(p.getError(), "erro inesperado");
+        assertTrue(p.isComplete());
+        return r;
+    }
+
+    @Test
+    void emitsPathsForNestedValues() {
+        Recorder r = parse("{\"path\":\"src/A.java\",\"line\":12,\"edits\":[{\"search\":\"a\",\"replace\":\"b\"}],\"ok\":true}");
+        assertEquals(List.of("path=src/A.java", "line=12", "edits[0].search=a", "edits[0].replace=b",
+                "edits[0]{}", "edits[]", "ok=true", "{}"), r.events);
+        assertInstanceOf(BigDecimal.class, r.values.get(1));
+    }
+
+    @Test
+    void sameEventsWhateverTheChunking() {
+        String json = "{\"a\": -12.5e3, \"b\": [true, false, null, 0], \"c\": \"x\\\"y\\u00e9\\n\", \"d\": {}}";
+        List<String> whole = parse(json).events;
+        for (int size = 1; size <= 4; size++) {
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < json.length(); i += size) chunks.add(json.substring(i, Math.min(json.length(), i + size)));
+            assertEquals(whole, parse(chunks.toArray(String[]::new)).events, "fragmentos de " + size);
+        }
+        assertEquals(List.of("a=-1.25E+4", "b[0]=true", "b[1]=false", "b[2]=null", "b[3]=0", "b[]",
+                "c=x\"yé\n", "d{}", "{}"), whole);
+    }
+
+    @Test
+    void numbersAndLiteralsSplitAcrossChunks() {
+        assertEquals(List.of("n=123", "t=true", "{}"), parse("{\"n\":1", "2", "3,\"t\":tr", "ue}").events);
+        assertEquals(new BigDecimal("42"), parse("4", "2").values.get(0));
+    }
+
+    @Test
+    void unicodeEscapeSplitAcrossChunks() {
+        Recorder r = parse("[\"\\u", "00", "e7\\u00", "E3o\"]");
+        assertEquals("ção", r.values.get(0));
+    }
+
+    @Test
+    void emptyContainers() {
+        assertEquals(List.of("[]"), parse("[", "]").events);
+        assertEquals(List.of("{}"), parse("{ }").events);
+        assertEquals(List.of("a[]", "b{}", "{}"), parse("{\"a\":[],\"b\":{}}").events);
+    }
+
+    @Test
+    void incompleteInputIsNotComplete() {
+        JsonStreamParser p = new JsonStreamParser(new Recorder());
+        p.feed("{\"path\":\"src/A");
+        assertFalse(p.isComplete());
+        assertNull(p.getError());
+    }
+
+    @Test
+    void reportsFirstErrorAndIgnoresTheRest() {
+        assertError("{\"a\":tru}", "literal inválido");
+        assertError("{\"a\" 1}", "esperava ':'");
+        assertError("[1 2]", "esperava ',' ou fim");
+        assertError("[\"\\u12x4\"]", "escape \\u inválido");
+        assertError("{} x", "conteúdo depois do fim");
+        assertError("{\"a\":1-}", "número inválido");
+        assertError("]", "']' inesperado");
+
+        Recorder r = new Recorder();
+        JsonStreamParser p = new JsonStreamParser(r);
+        p.feed("[1, x, 2]");
+        assertEquals(List.of("[0]=1"), r.events);
+        assertFalse(p.isComplete());
+    }
+
+    private static void assertError(String json, String expected) {
+        JsonStreamParser p = new JsonStreamParser(new Recorder());
+        p.feed(json);
+        p.finish();
+        assertNotNull(p.getError(), json);
+        assertTrue(p.getError().startsWith(expected), json + " -> " + p.getError());
+    }
+}
@@ -0,0 +1,34 @@
+package com.teuprojeto.chatgpt.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Threads dos testes de concorrência: o que rebentar numa delas fica guardado e
+ * {@link #failOnError()} fá-lo chegar à thread do teste.
+ */
+final class TestThreads {
+
+    interface Body {
+        void run() throws Exception;
+    }
+
+    private final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+    Thread start(Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    void failOnError() {
+        if (!errors.isEmpty()) fail(errors.peek());
+    }
+}